@@ -9,6 +9,14 @@ import java.sql.Connection;
  */
 public interface ConnectionManager {
     
+    /**
+     * without a pool this is the one shared connection and must not be closed.
+     * with a pool (any {@code sqlhelper.pool.*} property) the connection is leased from
+     * the pool and the caller must close it to give it back, until then no
+     * other caller can use it.
+     *
+     * @return the connection
+     */
     public Connection getConnection();
     
     public String getDatabaseURL();
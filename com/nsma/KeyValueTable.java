@@ -1,6 +1,8 @@
 package com.nsma;
 
+import java.util.Collection;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  *
@@ -31,4 +33,57 @@ public interface KeyValueTable {
     public Map<String,Object> getMap() throws Exception;
     
     public void putMap(Map<String,Object> map) throws Exception;
+
+    /**
+     * get the values of many keys with one SELECT for each 500 keys.
+     *
+     * @return the keys that exist and their values, in the order of
+     * <code>keys</code>.
+     */
+    public Map<String,Object> getAll(Collection<String> keys) throws Exception;
+
+    /**
+     * put all the entries in JDBC batches of 500 rows in one transaction (or
+     * the transaction already going), no entry is written if one fails.
+     */
+    public void putAll(Map<String,Object> map) throws Exception;
+
+    /**
+     * remove many keys in one transaction (or the transaction already going).
+     *
+     * @return the removed keys and their values, in the order of
+     * <code>keys</code>.
+     */
+    public Map<String,Object> removeAll(Collection<String> keys) throws Exception;
+
+    /**
+     * keep up to <code>maxEntries</code> values in memory for
+     * <code>timeToLive</code>, the least recently used are dropped when it is
+     * full. unknown keys are remembered too. values written through this
+     * object update the cache, values changed by other programs are seen
+     * after <code>timeToLive</code>.
+     *
+     * @param maxEntries 0 disables the cache.
+     * @param timeToLive 0 keeps values until they are dropped or changed.
+     */
+    public void setNearCache(int maxEntries, long timeToLive, TimeUnit unit);
+
+    /**
+     * values bigger than <code>bytes</code> are compressed, only supported by
+     * the typed table returned by <code>SQLHelper.getTypedKeyValueTable()</code>.
+     *
+     * @param bytes 0 disables compression, 4096 by default.
+     * @throws UnsupportedOperationException if this table isn't typed, its
+     * values are kept as strings and never compressed.
+     */
+    public void setCompressionThreshold(int bytes);
+
+    public long getNearCacheHits();
+
+    public long getNearCacheMisses();
+
+    /**
+     * @return hits / (hits + misses), 0 if the cache wasn't used.
+     */
+    public double getNearCacheHitRatio();
 }
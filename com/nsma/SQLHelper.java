@@ -1,7 +1,28 @@
 package com.nsma;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
@@ -11,13 +32,60 @@ import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.StringTokenizer;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  *
@@ -32,25 +100,88 @@ import java.util.StringTokenizer;
  */
 public class SQLHelper implements AutoCloseable {
 
-    //the connection to the databse
-    private Connection connection = null;
-
     //data base URL
     private String DB_URL = "";
 
     private DatabaseType currentConnectionDatabaseType = globalDatabaseType;
 
-    private TransactionManager transactionManager;
+    // created on first use, volatile so they are safely shared between threads
+    private volatile TransactionManager transactionManager;
+
+    private volatile TableManager tablesManager;
+
+    private volatile KeyValueTable keyValueTable;
+
+    private volatile KeyValueTable typedKeyValueTable;
+
+    //leases the connections to the databse
+    private ConnectionManagerImplementation connectionManager;
+
+    private volatile SQLHelperOperation sqlHelperOperation;
+
+    private SchemaCatalog schemaCatalog;
+
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+    private static final String POOL_PROPERTY_PREFIX = "sqlhelper.pool.";
+
+    // pool warnings, callers choose where they go through java.util.logging
+    private static final Logger LOGGER = Logger.getLogger(SQLHelper.class.getName());
+
+    private static volatile DatabaseType globalDatabaseType = DatabaseType.AUTO;
+
+    private static volatile boolean parameterMetaDataCheck = false;
+
+    // a ClassValue doesn't keep the class (and its class loader) reachable
+    private static final ClassValue<MethodHandle> instanceFactories = new ClassValue<MethodHandle>() {
+        @Override
+        protected MethodHandle computeValue(Class<?> objectClass) {
+            try {
+                return createInstanceFactory(objectClass);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new UndeclaredThrowableException(e);
+            }
+        }
+    };
+
+    // class -> column labels -> mapper
+    private static final ClassValue<Map<String, RowMapper<?>>> rowMappers = new ClassValue<Map<String, RowMapper<?>>>() {
+        @Override
+        protected Map<String, RowMapper<?>> computeValue(Class<?> objectClass) {
+            return new ConcurrentHashMap<>();
+        }
+    };
+
+    // per class
+    private static final int MAX_ROW_MAPPERS = 1024;
+
+    // fetch size of publisher() when fetchSize() isn't set
+    private static final int DEFAULT_PUBLISHER_FETCH_SIZE = 256;
+
+    // byte[] values longer than this are bound with setBinaryStream
+    private static final int BINARY_STREAM_THRESHOLD = 64 * 1024;
+
+    private static final SQLHelperBinder<Object> OBJECT_BINDER = new SQLHelperBinder<Object>() {
+        @Override
+        public void bind(PreparedStatement ps, int index, Object value) throws SQLException {
+            ps.setObject(index, value);
+        }
+    };
 
-    private TableManager tablesManager;
+    private static final Map<Class<?>, SQLHelperBinder<?>> BUILT_IN_BINDERS = createBuiltInBinders();
 
-    private KeyValueTable keyValueTable;
+    private static final Map<Class<?>, SQLHelperBinder<?>> userBinders = new ConcurrentHashMap<>();
 
-    private ConnectionManager connectionManager;
+    // value class -> binder found for it
+    private static final Map<Class<?>, SQLHelperBinder<?>> resolvedBinders = new ConcurrentHashMap<>();
 
-    private SQLHelperOperation sqlHelperOperation;
+    // classes other than the JDK classes that the typed key value table serializes
+    private static final Set<Class<?>> serializableTypes = ConcurrentHashMap.newKeySet();
 
-    private static DatabaseType globalDatabaseType = DatabaseType.AUTO;
+    // values bigger than this are compressed by the typed key value table unless it is changed
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 4 * 1024;
 
     // -------------------------------------------- STATIC METHODS -------------------------------------------------------- \\
     public static void setDefinedDatabaseType(DatabaseType type) {
@@ -61,18 +192,173 @@ public class SQLHelper implements AutoCloseable {
         return globalDatabaseType;
     }
 
+    /**
+     * when enabled, every count of <code>?</code> made by SQLHelper is checked
+     * against the JDBC <code>ParameterMetaData</code>, which can cost an extra
+     * round trip to the database, use it only for debugging.
+     *
+     * @param check true to enable the check.
+     */
+    public static void setParameterMetaDataCheck(boolean check) {
+        parameterMetaDataCheck = check;
+    }
+
+    public static boolean isParameterMetaDataCheck() {
+        return parameterMetaDataCheck;
+    }
+
     private static String getColumns(String tableName, Connection connection) throws Exception {
-        StringBuilder colNames = new StringBuilder(32);
-        ResultSet rs = connection.prepareStatement("SELECT * FROM " + tableName).executeQuery();
-        ResultSetMetaData rsmd = rs.getMetaData();
-        for (int i = 1; i <= rsmd.getColumnCount(); i++) {
-            colNames.append(rsmd.getColumnName(i));
-            if (i != rsmd.getColumnCount()) {
-                colNames.append(",");
+        return loadTableSchema(tableName, connection).columns;
+    }
+
+    // WHERE 1=0 returns no rows, so the driver only sends the columns description.
+    private static TableSchema loadTableSchema(String tableName, Connection connection) throws Exception {
+        String[] names;
+        int[] types;
+
+        try (PreparedStatement ps = connection.prepareStatement("SELECT * FROM " + tableName + " WHERE 1=0")) {
+            try (ResultSet rs = ps.executeQuery()) {
+                ResultSetMetaData rsmd = rs.getMetaData();
+                names = new String[rsmd.getColumnCount()];
+                types = new int[names.length];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = rsmd.getColumnName(i + 1);
+                    types[i] = rsmd.getColumnType(i + 1);
+                }
             }
         }
 
-        return colNames.toString();
+        return new TableSchema(names, types, getPrimaryKeys(tableName, connection), getUniqueIndexes(tableName, connection));
+    }
+
+    // columns of each unique index, the primary key index is usually one of them
+    private static List<String[]> getUniqueIndexes(String tableName, Connection connection) {
+        Map<String, List<String>> indexes = new LinkedHashMap<>();
+        try {
+            DatabaseMetaData metaData = connection.getMetaData();
+            String[] name = resolveTableName(tableName, metaData, connection);
+            try (ResultSet rs = metaData.getIndexInfo(name[0], name[1], name[2], true, true)) {
+                while (rs.next()) {
+                    String index = rs.getString("INDEX_NAME");
+                    String column = rs.getString("COLUMN_NAME");
+                    if (index == null || column == null || rs.getBoolean("NON_UNIQUE")) {
+                        continue;
+                    }
+                    List<String> columns = indexes.get(index);
+                    if (columns == null) {
+                        columns = new ArrayList<>();
+                        indexes.put(index, columns);
+                    }
+                    columns.add(column);
+                }
+            }
+        } catch (Throwable e) {
+        }
+
+        List<String[]> uniqueIndexes = new ArrayList<>(indexes.size());
+        for (List<String> columns : indexes.values()) {
+            uniqueIndexes.add(columns.toArray(new String[columns.size()]));
+        }
+        return uniqueIndexes;
+    }
+
+    // single statement insert or update of a row by its unique key, null if the database has none or keys
+    // aren't a unique key of the table.
+    private static String upsertSQL(DatabaseType databaseType, TableSchema schema, String table, List<String> cols, List<String> keys) {
+        if (!schema.isUniqueKey(keys)) {
+            return null;
+        }
+        // ON DUPLICATE KEY UPDATE updates the row that conflicts on any unique key, not only on keys
+        if (databaseType == DatabaseType.MYSQL && schema.uniqueKeyCount() > 1) {
+            return null;
+        }
+
+        List<String> updated = new ArrayList<>(cols.size());
+        for (String col : cols) {
+            if (!containsIgnoreCase(keys, col)) {
+                updated.add(col);
+            }
+        }
+
+        StringBuilder sql = new StringBuilder(64 + cols.size() * 32);
+
+        if (databaseType == DatabaseType.SQLITE) {
+            // SQLite 3.24 and later
+            sql.append("INSERT INTO ").append(table).append(" (").append(String.join(",", cols)).append(") VALUES (").append(Q_Marks(cols.size()))
+                    .append(") ON CONFLICT (").append(String.join(",", keys)).append(") DO ");
+            if (updated.isEmpty()) {
+                sql.append("NOTHING");
+            } else {
+                sql.append("UPDATE SET ");
+                for (int i = 0; i < updated.size(); i++) {
+                    sql.append(i == 0 ? "" : ",").append(updated.get(i)).append(" = excluded.").append(updated.get(i));
+                }
+            }
+        } else if (databaseType == DatabaseType.MYSQL) {
+            sql.append("INSERT INTO ").append(table).append(" (").append(String.join(",", cols)).append(") VALUES (").append(Q_Marks(cols.size()))
+                    .append(") ON DUPLICATE KEY UPDATE ");
+            if (updated.isEmpty()) {
+                sql.append(keys.get(0)).append(" = ").append(keys.get(0));
+            } else {
+                for (int i = 0; i < updated.size(); i++) {
+                    sql.append(i == 0 ? "" : ",").append(updated.get(i)).append(" = VALUES(").append(updated.get(i)).append(")");
+                }
+            }
+        } else if (databaseType == DatabaseType.ORACLE) {
+            sql.append("MERGE INTO ").append(table).append(" t USING (SELECT ");
+            for (int i = 0; i < cols.size(); i++) {
+                sql.append(i == 0 ? "" : ",").append("? ").append(cols.get(i));
+            }
+            sql.append(" FROM dual) s ON (");
+            for (int i = 0; i < keys.size(); i++) {
+                sql.append(i == 0 ? "" : " AND ").append("t.").append(keys.get(i)).append(" = s.").append(keys.get(i));
+            }
+            sql.append(")");
+            if (!updated.isEmpty()) {
+                sql.append(" WHEN MATCHED THEN UPDATE SET ");
+                for (int i = 0; i < updated.size(); i++) {
+                    sql.append(i == 0 ? "" : ",").append("t.").append(updated.get(i)).append(" = s.").append(updated.get(i));
+                }
+            }
+            sql.append(" WHEN NOT MATCHED THEN INSERT (").append(String.join(",", cols)).append(") VALUES (");
+            for (int i = 0; i < cols.size(); i++) {
+                sql.append(i == 0 ? "" : ",").append("s.").append(cols.get(i));
+            }
+            sql.append(")");
+        } else {
+            return null;
+        }
+
+        return sql.toString();
+    }
+
+    // ORA-00001, a MERGE can hit it when another session inserts the same key at the same time
+    private static boolean isUniqueViolation(SQLException e) {
+        return e.getErrorCode() == 1 && (e.getSQLState() == null || e.getSQLState().startsWith("23"));
+    }
+
+    private static boolean containsIgnoreCase(List<String> list, String value) {
+        for (String item : list) {
+            if (item.equalsIgnoreCase(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String[] getPrimaryKeys(String tableName, Connection connection) {
+        List<String> keys = new ArrayList<>();
+        try {
+            DatabaseMetaData metaData = connection.getMetaData();
+            String[] name = resolveTableName(tableName, metaData, connection);
+            try (ResultSet rs = metaData.getPrimaryKeys(name[0], name[1], name[2])) {
+                while (rs.next()) {
+                    keys.add(rs.getString("COLUMN_NAME"));
+                }
+            }
+        } catch (Throwable e) {
+        }
+        return keys.toArray(new String[keys.size()]);
     }
 
     private static String getColumns(String url, String tableName, PreparedStatement ps) throws Exception {
@@ -91,14 +377,111 @@ public class SQLHelper implements AutoCloseable {
     }
 
     private static boolean isTableExists(String table, Connection connection) throws Exception {
+        try {
+            DatabaseMetaData metaData = connection.getMetaData();
+            String[] name = resolveTableName(table, metaData, connection);
+            try (ResultSet rs = metaData.getTables(name[0], name[1], name[2], null)) {
+                return rs.next();
+            }
+        } catch (SQLFeatureNotSupportedException | AbstractMethodError e) {
+            // the driver has no catalog support, ask the table itself without reading any row
+            try (PreparedStatement ps = connection.prepareStatement("SELECT 1 FROM " + table + " WHERE 1=0")) {
+                ps.executeQuery().close();
+                return true;
+            } catch (Throwable e1) {
+                return false;
+            }
+        }
+    }
 
-        try (PreparedStatement ps = connection.prepareStatement("SELECT 1 FROM " + table)) {
-            try (ResultSet rs = ps.executeQuery()) {
+    // split a table name into {catalog, schema, table} as DatabaseMetaData expects them.
+    private static String[] resolveTableName(String tableName, DatabaseMetaData metaData, Connection connection) throws SQLException {
+        String catalog = null;
+        String schema = null;
+        String table = tableName.trim();
+
+        int dot = table.lastIndexOf('.');
+        if (dot != -1) {
+            schema = table.substring(0, dot);
+            table = table.substring(dot + 1);
+        } else {
+            // limit the search to the current database, otherwise tables of other users/databases are found too
+            catalog = connection.getCatalog();
+            try {
+                schema = connection.getSchema();
+            } catch (Throwable e) {
+                schema = null;
+            }
+        }
+
+        // unquoted names are stored in upper or lower case by most databases
+        if (metaData.storesUpperCaseIdentifiers()) {
+            table = table.toUpperCase();
+            schema = schema == null ? null : schema.toUpperCase();
+        } else if (metaData.storesLowerCaseIdentifiers()) {
+            table = table.toLowerCase();
+            schema = schema == null ? null : schema.toLowerCase();
+        }
+
+        return new String[]{catalog, schema, table};
+    }
+
+    // the sqlhelper.pool.* properties without the prefix, null if there is none.
+    private static Properties getPoolProperties(Properties properties) {
+        Properties poolProperties = null;
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith(POOL_PROPERTY_PREFIX)) {
+                if (poolProperties == null) {
+                    poolProperties = new Properties();
+                }
+                poolProperties.setProperty(name.substring(POOL_PROPERTY_PREFIX.length()), properties.getProperty(name));
             }
-            return true;
-        } catch (Throwable e) {
-            return false;
         }
+        return poolProperties;
+    }
+
+    // a proxy of target that closes the resources when it is closed, the target is closed too if closeTarget is true.
+    @SuppressWarnings("unchecked")
+    private static <T> T closeWith(Class<T> type, final T target, final boolean closeTarget, final AutoCloseable... resources) {
+        return (T) Proxy.newProxyInstance(SQLHelper.class.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+            boolean closed = false;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getParameterTypes().length == 0) {
+                    if (method.getName().equals("close")) {
+                        synchronized (this) {
+                            if (closed) {
+                                return null;
+                            }
+                            closed = true;
+                        }
+                        try {
+                            if (closeTarget) {
+                                method.invoke(target);
+                            }
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        } finally {
+                            for (AutoCloseable resource : resources) {
+                                try {
+                                    resource.close();
+                                } catch (Exception e) {
+                                }
+                            }
+                        }
+                        return null;
+                    } else if (method.getName().equals("isClosed") && closed) {
+                        return true;
+                    }
+                }
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        });
     }
 
     // -------------------------------------------- CONSTRUCTORS -------------------------------------------------------- \\
@@ -120,24 +503,28 @@ public class SQLHelper implements AutoCloseable {
             throw new SQLHelperException("Database URL is empty");
         }
 
-        if (connection != null && !connection.isClosed()) {
-            connection.close();
-        }
-
-        connection = null;
-
         DB_URL = URL;
 
-        connection = DriverManager.getConnection(DB_URL);
+        connectionManager = new ConnectionManagerImplementation(DB_URL, DriverManager.getConnection(DB_URL), new Properties());
+
+        schemaCatalog = new SchemaCatalog(connectionManager);
 
         try {
             fetchDatabaseTypeFromConnectionMetaData();
         } catch (Throwable e) {
         }
+
+        connectionManager.databaseType = currentConnectionDatabaseType;
     }
 
     /**
      * Open connection to the data base with provided URL and properties.
+     * <br> when the properties have any <code>sqlhelper.pool.*</code> key, a
+     * connection pool is opened instead and every operation leases a
+     * connection from it: <code>minSize</code>, <code>maxSize</code>,
+     * <code>acquireTimeout</code> (ms), <code>validationTimeout</code> (s),
+     * <code>idleTimeout</code> (ms) and <code>leakDetectionThreshold</code>
+     * (ms). these keys are not sent to the driver.
      *
      * @param URL databse url can't be null or empty.
      * @param properties database connection properties can't be null.
@@ -159,20 +546,24 @@ public class SQLHelper implements AutoCloseable {
             throw new SQLHelperException("Database properties is null");
         }
 
-        if (connection != null && !connection.isClosed()) {
-            connection.close();
-        }
+        DB_URL = URL;
 
-        connection = null;
+        Properties poolProperties = getPoolProperties(properties);
 
-        DB_URL = URL;
+        if (poolProperties == null) {
+            connectionManager = new ConnectionManagerImplementation(DB_URL, DriverManager.getConnection(DB_URL, properties), properties);
+        } else {
+            connectionManager = new PooledConnectionManagerImplementation(DB_URL, properties, poolProperties);
+        }
 
-        connection = DriverManager.getConnection(DB_URL, properties);
+        schemaCatalog = new SchemaCatalog(connectionManager);
 
         try {
             fetchDatabaseTypeFromConnectionMetaData();
         } catch (Throwable e) {
         }
+
+        connectionManager.databaseType = currentConnectionDatabaseType;
     }
 
     /**
@@ -194,20 +585,26 @@ public class SQLHelper implements AutoCloseable {
             throw new SQLHelperException("Database URL is empty");
         }
 
-        if (connection != null && !connection.isClosed()) {
-            connection.close();
-        }
+        DB_URL = URL;
 
-        connection = null;
+        Properties credentials = new Properties();
+        if (username != null) {
+            credentials.setProperty("user", username);
+        }
+        if (password != null) {
+            credentials.setProperty("password", password);
+        }
 
-        DB_URL = URL;
+        connectionManager = new ConnectionManagerImplementation(DB_URL, DriverManager.getConnection(DB_URL, credentials), credentials);
 
-        connection = DriverManager.getConnection(DB_URL, username, password);
+        schemaCatalog = new SchemaCatalog(connectionManager);
 
         try {
             fetchDatabaseTypeFromConnectionMetaData();
         } catch (Throwable e) {
         }
+
+        connectionManager.databaseType = currentConnectionDatabaseType;
     }
 
     // -------------------------------------------- PUBLIC METHODS -------------------------------------------------------- \\
@@ -221,51 +618,129 @@ public class SQLHelper implements AutoCloseable {
      */
     @Override
     public void close() throws Exception {
-        if (connection != null && !connection.isClosed()) {
-            if (!connection.getAutoCommit()) {
-                connection.rollback();
-            }
-            connection.close();
+        if (schemaCatalog != null) {
+            schemaCatalog.clear();
+        }
+        if (connectionManager != null) {
+            connectionManager.shutdownAsync();
+            connectionManager.close();
         }
     }
 
+    /**
+     * set the maximum number of prepared statements kept open for reuse, the
+     * least recently used statements are closed when the cache is full. 0
+     * disables the cache.
+     * <br> with a connection pool every connection has its own cache.
+     *
+     * @param size maximum number of cached statements.
+     */
+    public void setStatementCacheSize(int size) {
+        connectionManager.setStatementCacheSize(size);
+    }
+
+    /**
+     * @return how many times a prepared statement was reused from the cache.
+     */
+    public long getStatementCacheHits() {
+        return connectionManager.getStatementCacheHits();
+    }
+
+    /**
+     * @return how many times a statement had to be prepared because it wasn't
+     * in the cache.
+     */
+    public long getStatementCacheMisses() {
+        return connectionManager.getStatementCacheMisses();
+    }
+
+    /**
+     * the operations can be used by many threads at the same time, each
+     * <code>insertInto()</code>, <code>update()</code>,
+     * <code>deleteFrom()</code> and <code>selectFrom()</code> call returns a
+     * new statement that must be used by one thread only.
+     * <br> to run operations from many threads in parallel open SQLHelper with
+     * a connection pool, otherwise all threads share one connection.
+     *
+     * @return the database operations.
+     */
     public SQLHelperOperation op() {
-        if (sqlHelperOperation == null) {
-            sqlHelperOperation = new SQLHelperOperationImplementation(connection, currentConnectionDatabaseType);
+        SQLHelperOperation operation = sqlHelperOperation;
+        if (operation == null) {
+            synchronized (this) {
+                if (sqlHelperOperation == null) {
+                    sqlHelperOperation = new SQLHelperOperationImplementation(connectionManager, schemaCatalog, currentConnectionDatabaseType);
+                }
+                operation = sqlHelperOperation;
+            }
         }
 
-        return sqlHelperOperation;
+        return operation;
     }
 
     public TableManager getTableManager() {
-        if (tablesManager == null) {
-            tablesManager = new TableManagerImplementation(connection);
+        TableManager manager = tablesManager;
+        if (manager == null) {
+            synchronized (this) {
+                if (tablesManager == null) {
+                    tablesManager = new TableManagerImplementation(connectionManager, schemaCatalog, currentConnectionDatabaseType);
+                }
+                manager = tablesManager;
+            }
         }
 
-        return tablesManager;
+        return manager;
     }
 
     public TransactionManager getTransactionManager() {
-        if (transactionManager == null) {
-            transactionManager = new TransactionManagerImplementation(connection);
+        TransactionManager manager = transactionManager;
+        if (manager == null) {
+            synchronized (this) {
+                if (transactionManager == null) {
+                    transactionManager = new TransactionManagerImplementation(connectionManager);
+                }
+                manager = transactionManager;
+            }
         }
 
-        return transactionManager;
+        return manager;
     }
 
     public KeyValueTable getKeyValueTable() {
-        if (keyValueTable == null) {
-            keyValueTable = new KeyValueTableImplementation(connection);
+        KeyValueTable table = keyValueTable;
+        if (table == null) {
+            synchronized (this) {
+                if (keyValueTable == null) {
+                    keyValueTable = new KeyValueTableImplementation(connectionManager, schemaCatalog);
+                }
+                table = keyValueTable;
+            }
         }
 
-        return keyValueTable;
+        return table;
     }
 
-    public ConnectionManager getConnectionManager() {
-        if (connectionManager == null) {
-            connectionManager = new ConnectionManagerImplementation(connection, DB_URL, currentConnectionDatabaseType);
+    /**
+     * a key value table that keeps the values in a binary column with their
+     * type, <code>get(key, Class)</code> returns them as they were put
+     * without converting them through strings. it uses its own table
+     * <code>sqlhelper_typed_key_value_table</code>.
+     */
+    public KeyValueTable getTypedKeyValueTable() {
+        KeyValueTable table = typedKeyValueTable;
+        if (table == null) {
+            synchronized (this) {
+                if (typedKeyValueTable == null) {
+                    typedKeyValueTable = new KeyValueTableImplementation(connectionManager, schemaCatalog, true);
+                }
+                table = typedKeyValueTable;
+            }
         }
 
+        return table;
+    }
+
+    public ConnectionManager getConnectionManager() {
         return connectionManager;
     }
 
@@ -276,8 +751,10 @@ public class SQLHelper implements AutoCloseable {
             return;
         }
 
-        DatabaseMetaData metaData = connection.getMetaData();
-        String databseName = metaData.getDatabaseProductName().toUpperCase();
+        String databseName;
+        try (LeasedConnection connection = connectionManager.acquire()) {
+            databseName = connection.connection.getMetaData().getDatabaseProductName().toUpperCase();
+        }
 
         if (databseName.contains("MYSQL")) {
             currentConnectionDatabaseType = DatabaseType.MYSQL;
@@ -310,28 +787,243 @@ public class SQLHelper implements AutoCloseable {
         return res.toString();
     }
 
+    // true if the map keys are exactly the columns, in any order.
+    private static boolean hasSameKeys(Map<String, Object> valuesMap, List<String> cols) {
+        if (cols == null || cols.size() != valuesMap.size()) {
+            return false;
+        }
+        for (int i = 0; i < cols.size(); i++) {
+            if (!valuesMap.containsKey(cols.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // count the '?' placeholders in sql, skipping string literals, quoted identifiers and comments.
+    // with backslashEscapes a backslash escapes the next character inside quotes, as MySQL does by default.
+    // -1 if sql ends inside a literal, identifier or comment, the count can't be trusted then.
+    private static int countParameters(String sql, boolean backslashEscapes) {
+        int count = 0;
+        int length = sql.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = sql.charAt(i);
+
+            switch (c) {
+                case '?':
+                    count++;
+                    break;
+                case '\'':
+                case '"':
+                case '`':
+                    // a doubled quote inside a literal ('it''s') is read as closing and opening again
+                    int end = i + 1;
+                    while (end < length && sql.charAt(end) != c) {
+                        end += backslashEscapes && c != '`' && sql.charAt(end) == '\\' ? 2 : 1;
+                    }
+                    if (end >= length) {
+                        return -1;
+                    }
+                    i = end;
+                    break;
+                case '[':
+                    int bracket = sql.indexOf(']', i + 1);
+                    if (bracket == -1) {
+                        return -1;
+                    }
+                    i = bracket;
+                    break;
+                case '-':
+                    if (i + 1 < length && sql.charAt(i + 1) == '-') {
+                        int lineEnd = sql.indexOf('\n', i + 2);
+                        i = lineEnd == -1 ? length : lineEnd;
+                    }
+                    break;
+                case '/':
+                    if (i + 1 < length && sql.charAt(i + 1) == '*') {
+                        int commentEnd = sql.indexOf("*/", i + 2);
+                        if (commentEnd == -1) {
+                            return -1;
+                        }
+                        i = commentEnd + 1;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return count;
+    }
+
+    // the '?' count for the database, the driver's count when sql can't be counted here,
+    // -1 if the driver can't tell either.
+    private static int countParameters(ConnectionManagerImplementation connectionManager, String sql) {
+        int count = countParameters(sql, connectionManager.getDatabaseType() == DatabaseType.MYSQL);
+        if (count == -1) {
+            try (LeasedConnection connection = connectionManager.acquire(); CachedStatement cached = connection.statementCache.prepare(sql)) {
+                count = cached.statement.getParameterMetaData().getParameterCount();
+            } catch (Throwable t) {
+                count = -1;
+            }
+        }
+        return count;
+    }
+
+    private static int getParameterCount(PreparedStatement ps, String sql) throws SQLException {
+        int count = countParameters(sql, false);
+        // a backslash before a quote only escapes it on some databases, the driver knows which
+        boolean counted = count != -1 && count == countParameters(sql, true);
+
+        if (!counted || parameterMetaDataCheck) {
+            int driverCount = ps.getParameterMetaData().getParameterCount();
+            if (counted && driverCount != count) {
+                throw new SQLHelperException("SQL statement parameters count is (" + driverCount + ") but SQLHelper counted (" + count + "), for: " + sql);
+            }
+            return driverCount;
+        }
+
+        return count;
+    }
+
     private static void setValuesForPreparedStatment(PreparedStatement ps, Object obj, int index) throws SQLException {
-        if (obj instanceof String) {
-            ps.setString(index, (String) obj);
-        } else if (obj instanceof Integer) {
-            ps.setInt(index, (int) obj);
-        } else if (obj instanceof Double) {
-            ps.setDouble(index, (double) obj);
-        } else if (obj instanceof Byte[]) {
-            ps.setBytes(index, (byte[]) obj);
-        } else if (obj instanceof Long) {
-            ps.setLong(index, (long) obj);
-        } else if (obj instanceof Float) {
-            ps.setFloat(index, (float) obj);
-        } else if (obj instanceof Boolean) {
-            ps.setBoolean(index, (boolean) obj);
-        } else if (obj instanceof Byte) {
-            ps.setByte(index, (byte) obj);
-        } else if (obj instanceof Short) {
-            ps.setShort(index, (short) obj);
+        if (obj == null) {
+            ps.setObject(index, null);
+        } else {
+            getBinder(obj.getClass()).bind(ps, index, obj);
+        }
+    }
+
+    /**
+     * bind values of type <code>type</code> with <code>binder</code> instead
+     * of the default binding, it is used for the subclasses of
+     * <code>type</code> too unless they have their own binder. binders
+     * should be registered before the statements are used, a statement may
+     * keep the binder it already found for a parameter.
+     *
+     * @param type the class of the values.
+     * @param binder the binder, null removes the registered binder.
+     */
+    public static <T> void registerBinder(Class<T> type, SQLHelperBinder<? super T> binder) {
+        if (type == null) {
+            throw new NullPointerException("type is null.");
+        }
+        if (binder == null) {
+            userBinders.remove(type);
         } else {
-            ps.setObject(index, obj);
+            userBinders.put(type, binder);
+        }
+        resolvedBinders.clear();
+    }
+
+    /**
+     * allow the typed key value table to store values of <code>type</code>
+     * and its subclasses with java serialization. the JDK numbers, strings,
+     * dates and common collections are allowed without registering, other
+     * classes are refused when put and when read so the table can't be used to
+     * create unexpected objects.
+     *
+     * @see #getTypedKeyValueTable()
+     */
+    public static void registerSerializableType(Class<? extends Serializable> type) {
+        if (type == null) {
+            throw new NullPointerException("type is null.");
+        }
+        serializableTypes.add(type);
+    }
+
+    // the binder of a class: a binder registered for the class itself, then the built-in binder of the class,
+    // then the binders of its super types, otherwise setObject. the answer is cached so the search runs once per class.
+    @SuppressWarnings("unchecked")
+    private static SQLHelperBinder<Object> getBinder(Class<?> type) {
+        SQLHelperBinder<?> binder = resolvedBinders.get(type);
+        if (binder == null) {
+            binder = userBinders.get(type);
+            if (binder == null) {
+                binder = BUILT_IN_BINDERS.get(type);
+            }
+            if (binder == null) {
+                binder = findBinder(type, userBinders);
+            }
+            if (binder == null) {
+                binder = findBinder(type, BUILT_IN_BINDERS);
+            }
+            if (binder == null) {
+                binder = OBJECT_BINDER;
+            }
+            resolvedBinders.put(type, binder);
+        }
+        return (SQLHelperBinder<Object>) binder;
+    }
+
+    private static SQLHelperBinder<?> findBinder(Class<?> type, Map<Class<?>, SQLHelperBinder<?>> binders) {
+        if (binders.isEmpty()) {
+            return null;
+        }
+        for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+            SQLHelperBinder<?> binder = binders.get(c);
+            if (binder != null) {
+                return binder;
+            }
+            for (Class<?> i : c.getInterfaces()) {
+                binder = findBinder(i, binders);
+                if (binder != null) {
+                    return binder;
+                }
+            }
         }
+        return null;
+    }
+
+    private static Map<Class<?>, SQLHelperBinder<?>> createBuiltInBinders() {
+        Map<Class<?>, SQLHelperBinder<?>> binders = new HashMap<>();
+
+        binders.put(String.class, (SQLHelperBinder<String>) (ps, index, value) -> ps.setString(index, value));
+        binders.put(Integer.class, (SQLHelperBinder<Integer>) (ps, index, value) -> ps.setInt(index, value));
+        binders.put(Long.class, (SQLHelperBinder<Long>) (ps, index, value) -> ps.setLong(index, value));
+        binders.put(Double.class, (SQLHelperBinder<Double>) (ps, index, value) -> ps.setDouble(index, value));
+        binders.put(Float.class, (SQLHelperBinder<Float>) (ps, index, value) -> ps.setFloat(index, value));
+        binders.put(Short.class, (SQLHelperBinder<Short>) (ps, index, value) -> ps.setShort(index, value));
+        binders.put(Byte.class, (SQLHelperBinder<Byte>) (ps, index, value) -> ps.setByte(index, value));
+        binders.put(Boolean.class, (SQLHelperBinder<Boolean>) (ps, index, value) -> ps.setBoolean(index, value));
+        binders.put(Character.class, (SQLHelperBinder<Character>) (ps, index, value) -> ps.setString(index, String.valueOf(value.charValue())));
+        binders.put(BigDecimal.class, (SQLHelperBinder<BigDecimal>) (ps, index, value) -> ps.setBigDecimal(index, value));
+        binders.put(BigInteger.class, (SQLHelperBinder<BigInteger>) (ps, index, value) -> ps.setBigDecimal(index, new BigDecimal(value)));
+
+        binders.put(byte[].class, (SQLHelperBinder<byte[]>) (ps, index, value) -> {
+            if (value.length > BINARY_STREAM_THRESHOLD) {
+                // most drivers copy or escape a byte[] given to setBytes, a stream is sent as it is
+                ps.setBinaryStream(index, new ByteArrayInputStream(value), value.length);
+            } else {
+                ps.setBytes(index, value);
+            }
+        });
+        binders.put(Byte[].class, (SQLHelperBinder<Byte[]>) (ps, index, value) -> {
+            byte[] bytes = new byte[value.length];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = value[i];
+            }
+            getBinder(byte[].class).bind(ps, index, bytes);
+        });
+
+        binders.put(java.sql.Date.class, (SQLHelperBinder<java.sql.Date>) (ps, index, value) -> ps.setDate(index, value));
+        binders.put(Time.class, (SQLHelperBinder<Time>) (ps, index, value) -> ps.setTime(index, value));
+        binders.put(Timestamp.class, (SQLHelperBinder<Timestamp>) (ps, index, value) -> ps.setTimestamp(index, value));
+        binders.put(java.util.Date.class, (SQLHelperBinder<java.util.Date>) (ps, index, value) -> ps.setTimestamp(index, new Timestamp(value.getTime())));
+
+        // java.time through the java.sql types, drivers older than JDBC 4.2 don't accept them in setObject
+        binders.put(LocalDate.class, (SQLHelperBinder<LocalDate>) (ps, index, value) -> ps.setDate(index, java.sql.Date.valueOf(value)));
+        binders.put(LocalTime.class, (SQLHelperBinder<LocalTime>) (ps, index, value) -> ps.setTime(index, Time.valueOf(value)));
+        binders.put(LocalDateTime.class, (SQLHelperBinder<LocalDateTime>) (ps, index, value) -> ps.setTimestamp(index, Timestamp.valueOf(value)));
+        binders.put(Instant.class, (SQLHelperBinder<Instant>) (ps, index, value) -> ps.setTimestamp(index, Timestamp.from(value)));
+        binders.put(OffsetDateTime.class, (SQLHelperBinder<OffsetDateTime>) (ps, index, value) -> ps.setTimestamp(index, Timestamp.from(value.toInstant())));
+        binders.put(ZonedDateTime.class, (SQLHelperBinder<ZonedDateTime>) (ps, index, value) -> ps.setTimestamp(index, Timestamp.from(value.toInstant())));
+
+        // none of the supported databases has a UUID type, register a binder for databases that have one
+        binders.put(UUID.class, (SQLHelperBinder<UUID>) (ps, index, value) -> ps.setString(index, value.toString()));
+
+        return binders;
     }
 
     private static <T> T castValue(Object obj, Class<T> clazz) throws SQLException {
@@ -390,22 +1082,124 @@ public class SQLHelper implements AutoCloseable {
     }
 
     private static <T> T createConstructorAndNewInstance(Class<T> objectClass) throws Exception {
+        // the factory calls a constructor of objectClass, so the instance is a T
+        @SuppressWarnings("unchecked")
+        T obj = (T) newInstance(getInstanceFactory(objectClass), objectClass);
+        return obj;
+    }
 
-        Constructor constructor = objectClass.getConstructors()[0];
+    private static MethodHandle getInstanceFactory(Class<?> objectClass) throws Exception {
+        try {
+            return instanceFactories.get(objectClass);
+        } catch (UndeclaredThrowableException e) {
+            throw (Exception) e.getCause();
+        }
+    }
+
+    // the first public constructor with default values for its parameters, resolved once per class.
+    private static MethodHandle createInstanceFactory(Class<?> objectClass) throws Exception {
+        Constructor<?> constructor = objectClass.getConstructors()[0];
         Class<?>[] parameterTypes = constructor.getParameterTypes();
         Object[] parameters = new Object[parameterTypes.length];
         for (int i = 0; i < parameters.length; i++) {
             parameters[i] = getDefaultValue(parameterTypes[i]);
         }
 
-        return (T) constructor.newInstance(parameters);
-    }
-
+        try {
+            constructor.setAccessible(true);
+        } catch (RuntimeException e) {
+        }
+
+        return MethodHandles.insertArguments(MethodHandles.lookup().unreflectConstructor(constructor), 0, parameters)
+                .asType(MethodType.methodType(Object.class));
+    }
+
+    private static Object newInstance(MethodHandle factory, Class<?> objectClass) throws Exception {
+        try {
+            return (Object) factory.invokeExact();
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new SQLHelperException("Can't create instance of " + objectClass.getName() + ": " + t);
+        }
+    }
+
+    private static <T extends SQLHelperValue> RowMapper<T> getRowMapper(Class<T> objectClass, ResultSetMetaData rsMeta) throws Exception {
+        int colCount = rsMeta.getColumnCount();
+        String[] labels = new String[colCount];
+
+        StringBuilder shape = new StringBuilder(colCount * 8);
+        for (int i = 0; i < colCount; i++) {
+            labels[i] = rsMeta.getColumnLabel(i + 1);
+            shape.append(',').append(labels[i]);
+        }
+
+        String key = shape.toString();
+        Map<String, RowMapper<?>> mappers = rowMappers.get(objectClass);
+        // mappers only holds mappers of objectClass
+        @SuppressWarnings("unchecked")
+        RowMapper<T> mapper = (RowMapper<T>) mappers.get(key);
+        if (mapper == null) {
+            for (int i = 0; i < colCount; i++) {
+                labels[i] = labels[i].toLowerCase();
+            }
+            mapper = new RowMapper<>(objectClass, getInstanceFactory(objectClass), labels);
+
+            // ad-hoc column lists could fill the cache without limit
+            if (mappers.size() >= MAX_ROW_MAPPERS) {
+                mappers.clear();
+            }
+            mappers.put(key, mapper);
+        }
+        return mapper;
+    }
+
     private static <T> T getDefaultValue(Class<T> clazz) {
         T def = (T) Array.get(Array.newInstance(clazz, 1), 0);
         return def;
     }
 
+    // the largest number of bind parameters allowed in one statement.
+    private static int maxBindParameters(DatabaseType type) {
+        switch (type) {
+            case MYSQL:
+            case ORACLE:
+                return 65535;
+            case SQLITE:
+                // SQLITE_MAX_VARIABLE_NUMBER before SQLite 3.32
+                return 999;
+            case MSACCESS:
+                return 768;
+            default:
+                return 2100;
+        }
+    }
+
+    // the largest number of rows allowed in one multi-row INSERT statement.
+    private static int maxRowsPerInsert(DatabaseType type) {
+        switch (type) {
+            case MSACCESS:
+                // no multi-row VALUES support
+                return 1;
+            case SQLITE:
+                // SQLITE_MAX_COMPOUND_SELECT in old versions
+                return 500;
+            case MYSQL:
+                return 10000;
+            default:
+                return 1000;
+        }
+    }
+
+    // the largest number of columns of all rows of one multi-row INSERT statement.
+    private static int maxInsertColumns(DatabaseType type) {
+        if (type == DatabaseType.ORACLE) {
+            // ORA-24335, INSERT ALL can't have more than 999 target columns in total
+            return 999;
+        }
+        return Integer.MAX_VALUE;
+    }
+
     public static enum DatabaseType {
         MYSQL, SQLITE, MSACCESS, ORACLE, AUTO, OTHER
     }
@@ -420,11 +1214,38 @@ public class SQLHelper implements AutoCloseable {
         SQLHelperValue valueNew = null;
         Map<String, Object> valuesMap = null;
 
-        Connection connection;
+        // JDBC batch, kept open between addBatch() calls until executeBatch()
+        LeasedConnection batchConnection = null;
+        PreparedStatement batchStatement = null;
+        String batchColumns = null;
+        int batchSize = 0;
+        int batchCount = 0;
+        int[] flushedCounts = null;
+        int flushedCountsSize = 0;
+
+        // multi-row VALUES mode, each row is an Object[] in column order or a SQLHelperValue
+        boolean multiRowValues = false;
+        List<Object> batchRows = null;
+        List<String> batchCols = null;
+
+        ColumnIdsCache columnIds = new ColumnIdsCache();
+
+        ParameterBinders binders = new ParameterBinders();
+
+        // columns and SQL of the last execution, reused while the columns don't change
+        String builtColumns = null;
+        List<String> builtCols = null;
+        String builtSQL = null;
+
+        ConnectionManagerImplementation connectionManager;
+        SchemaCatalog schemaCatalog;
+        DatabaseType databaseType;
 
-        public SQLHelperInsertStatmentImplementation(Connection conn, String table) {
-            this.connection = conn;
+        public SQLHelperInsertStatmentImplementation(ConnectionManagerImplementation connectionManager, SchemaCatalog schemaCatalog, String table, DatabaseType databaseType) {
+            this.connectionManager = connectionManager;
+            this.schemaCatalog = schemaCatalog;
             this.table = table;
+            this.databaseType = databaseType;
         }
 
         @Override
@@ -489,17 +1310,190 @@ public class SQLHelper implements AutoCloseable {
             return metaData;
         }
 
+        @Override
+        public SQLHelperInsertStatment setBatchSize(int rows) {
+            batchSize = rows;
+            return this;
+        }
+
+        @Override
+        public SQLHelperInsertStatment setMultiRowValues(boolean multiRowValues) throws Exception {
+            if (batchCount > 0) {
+                throw new SQLHelperException("Can't change the batch mode while the batch has rows, call executeBatch() first.");
+            }
+            this.multiRowValues = multiRowValues;
+            return this;
+        }
+
+        @Override
+        public SQLHelperInsertStatment addBatch() throws Exception {
+            try {
+                addBatchRow();
+            } catch (Exception e) {
+                // nobody may call executeBatch() after an error, so the batch connection is given back now
+                try {
+                    clearBatch();
+                } catch (Exception closeError) {
+                    e.addSuppressed(closeError);
+                }
+                throw e;
+            }
+            return this;
+        }
+
+        private void addBatchRow() throws Exception {
+            List<String> cols = resolveColumns();
+
+            if (batchColumns != null && !batchColumns.equalsIgnoreCase(columns)) {
+                throw new SQLHelperException("SQL INSERT batch requires the same columns for all rows, expected: (" + batchColumns + ") but found: (" + columns + ")");
+            }
+            if (batchConnection == null) {
+                // all rows of the batch are sent through the same connection
+                batchConnection = connectionManager.acquireDetached();
+            }
+            if (batchColumns == null) {
+                batchColumns = columns;
+                batchCols = cols;
+            }
+
+            if (multiRowValues) {
+                if (batchRows == null) {
+                    batchRows = new ArrayList<>(batchSize > 0 ? batchSize : 16);
+                }
+                batchRows.add(copyRow(cols));
+            } else {
+                if (batchStatement == null) {
+                    batchStatement = batchConnection.prepareStatement(buildSQL(cols.size()));
+                }
+
+                int i = bindValues(batchStatement, cols, cols.size());
+
+                if (i < cols.size()) {
+                    throw new SQLHelperException("SQL INSERT statement requires (" + cols.size() + ") values but found (" + i + ") values, for columns: (" + columns + ")");
+                }
+
+                batchStatement.addBatch();
+            }
+            batchCount++;
+
+            // keep the columns for the next row, only values are cleared
+            valuesArray = null;
+            valuesMap = null;
+            valueNew = null;
+
+            if (batchSize > 0 && batchCount >= batchSize) {
+                flushBatch();
+            }
+        }
+
+        @Override
+        public int[] executeBatch() throws Exception {
+            if (batchColumns == null) {
+                clearBatch();
+                return new int[0];
+            }
+
+            try {
+                flushBatch();
+
+                int[] res = new int[flushedCountsSize];
+                if (flushedCounts != null) {
+                    System.arraycopy(flushedCounts, 0, res, 0, flushedCountsSize);
+                }
+                return res;
+            } finally {
+                clearBatch();
+            }
+        }
+
+        // drop the batch rows, close the batch statement and give back the batch connection
+        private void clearBatch() throws Exception {
+            PreparedStatement statement = batchStatement;
+            LeasedConnection connection = batchConnection;
+            batchConnection = null;
+            batchStatement = null;
+            batchRows = null;
+            batchColumns = null;
+            batchCols = null;
+            batchCount = 0;
+            flushedCounts = null;
+            flushedCountsSize = 0;
+            try {
+                if (statement != null) {
+                    statement.close();
+                }
+            } finally {
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+        }
+
         @Override
         public int execute() throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                int res = 0;
+
+                List<String> cols = resolveColumns();
+
+                try (CachedStatement cached = connection.statementCache.prepare(buildSQL(cols.size()))) {
+                    PreparedStatement ps = cached.statement;
+
+                    int varags = getParameterCount(ps, cached.sql);
+
+                    int i = bindValues(ps, cols, varags);
+
+                    if (i < varags) {
+                        throw new SQLHelperException("SQL INSERT statement requires (" + varags + ") values but found (" + i + ") values, for columns: (" + columns + ")");
+                    }
+
+                    reset();
+                    res = ps.executeUpdate();
+                }
+
+                return res;
             }
+        }
 
-            int res = 0;
-            int size = 0;
-            List<String> cols = null;
+        @Override
+        public CompletableFuture<Integer> executeAsync() {
+            final SQLHelperInsertStatmentImplementation copy = copy();
+            reset();
+
+            return connectionManager.submitAsync(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return copy.execute();
+                }
+            });
+        }
+
+        // a statement with the same columns and values, for executing on another thread
+        private SQLHelperInsertStatmentImplementation copy() {
+            SQLHelperInsertStatmentImplementation copy = new SQLHelperInsertStatmentImplementation(connectionManager, schemaCatalog, table, databaseType);
+            copy.columns = columns;
+            copy.valuesArray = valuesArray;
+            copy.valueNew = valueNew;
+            copy.valuesMap = valuesMap == null ? null : new HashMap<>(valuesMap);
+            return copy;
+        }
+
+        @Override
+        public SQLHelperCompiledStatment compile() throws Exception {
+            List<String> cols = resolveColumns();
+
+            return new SQLHelperCompiledStatmentImplementation(connectionManager, "INSERT", buildSQL(cols.size()), columns, false);
+        }
+
+        // resolve the columns of the current row and update 'columns' to match them.
+        private List<String> resolveColumns() throws Exception {
+            List<String> cols;
 
             if (valuesArray == null && valueNew == null && valuesMap != null) {
+                if (hasSameKeys(valuesMap, builtCols)) {
+                    columns = builtColumns;
+                    return builtCols;
+                }
                 StringBuilder columnBuilder = new StringBuilder(valuesMap.size() * 6);
                 cols = new ArrayList<>(valuesMap.size());
                 Iterator<String> iterator = valuesMap.keySet().iterator();
@@ -507,60 +1501,205 @@ public class SQLHelper implements AutoCloseable {
                     String next = iterator.next();
                     columnBuilder.append(iterator.hasNext() ? next + "," : next);
                     cols.add(next);
-                    size++;
                 }
                 columns = columnBuilder.toString();
             } else {
                 if ((columns == null || columns.trim().isEmpty())) {
-                    columns = getColumns(table, connection);
+                    columns = schemaCatalog.getColumns(table);
+                }
+                if (columns.equals(builtColumns)) {
+                    return builtCols;
                 }
                 cols = new ArrayList<>();
-                StringTokenizer st = new StringTokenizer(columns, ",", true);
+                StringTokenizer st = new StringTokenizer(columns, ",", false);
                 while (st.hasMoreElements()) {
-                    String next = st.nextToken();
-                    if (!next.equals(",")) {
-                        cols.add(next);
-                    } else {
-                        size++;
-                    }
+                    cols.add(st.nextToken());
                 }
-                size++;
             }
 
-            StringBuilder sql = new StringBuilder(50);
+            builtColumns = columns;
+            builtCols = cols;
+            builtSQL = null;
 
-            sql.append("INSERT INTO ").append(table).append("(").append(columns).append(") VALUES (").append(Q_Marks(size)).append(")");
+            return cols;
+        }
 
-            try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+        // called after resolveColumns(), so 'columns' are the built columns
+        private String buildSQL(int size) {
+            if (builtSQL == null) {
+                StringBuilder sql = new StringBuilder(50);
 
-                int varags = ps.getParameterMetaData().getParameterCount();
+                sql.append("INSERT INTO ").append(table).append("(").append(columns).append(") VALUES (").append(Q_Marks(size)).append(")");
 
-                int i = 0;
-                if (valuesArray != null) {
-                    for (; i < varags && i < valuesArray.length; i++) {
-                        setValuesForPreparedStatment(ps, this.valuesArray[i], i + 1);
-                    }
+                builtSQL = sql.toString();
+            }
+            return builtSQL;
+        }
+
+        // bind the current row values, returns how many values were bound.
+        private int bindValues(PreparedStatement ps, List<String> cols, int varags) throws Exception {
+            int i = 0;
+            if (valuesArray != null) {
+                for (; i < varags && i < valuesArray.length; i++) {
+                    binders.bind(ps, this.valuesArray[i], i + 1);
+                }
+            }
+            if (valuesMap != null) {
+                for (; i < varags && i < valuesMap.size(); i++) {
+                    binders.bind(ps, valuesMap.get(cols.get(i)), i + 1);
+                }
+            }
+            if (valueNew instanceof SQLHelperIndexedValue) {
+                SQLHelperIndexedValue indexedValue = (SQLHelperIndexedValue) valueNew;
+                int[] ids = columnIds.get(indexedValue, columns, cols);
+                for (; i < varags && i < cols.size(); i++) {
+                    indexedValue.getSQLHelperValue(ids[i], i + 1, ps);
+                }
+            } else if (valueNew != null) {
+                for (; i < varags && i < cols.size(); i++) {
+                    valueNew.getSQLHelperValue(cols.get(i).toLowerCase(), i + 1, ps);
+                }
+            }
+            return i;
+        }
+
+        // copy the current row values so they can be bound later in a multi-row statement.
+        private Object copyRow(List<String> cols) throws Exception {
+            if (valueNew != null) {
+                return valueNew;
+            }
+
+            Object[] row = new Object[cols.size()];
+            int i = 0;
+            if (valuesArray != null) {
+                for (; i < row.length && i < valuesArray.length; i++) {
+                    row[i] = valuesArray[i];
+                }
+            } else if (valuesMap != null) {
+                for (; i < row.length && i < valuesMap.size(); i++) {
+                    row[i] = valuesMap.get(cols.get(i));
                 }
-                if (valuesMap != null) {
-                    for (; i < varags && i < valuesMap.size(); i++) {
-                        setValuesForPreparedStatment(ps, valuesMap.get(cols.get(i)), i + 1);
+            }
+
+            if (i < row.length) {
+                throw new SQLHelperException("SQL INSERT statement requires (" + row.length + ") values but found (" + i + ") values, for columns: (" + columns + ")");
+            }
+
+            return row;
+        }
+
+        private void flushBatch() throws Exception {
+            if (batchCount == 0) {
+                return;
+            }
+
+            if (multiRowValues) {
+                flushMultiRowValues();
+            } else {
+                appendCounts(batchStatement.executeBatch());
+            }
+            batchCount = 0;
+        }
+
+        // send the collected rows using as few INSERT statements as the database allows.
+        private void flushMultiRowValues() throws Exception {
+            int colCount = batchCols.size();
+            int rowsPerStatement = Math.max(1, Math.min(maxRowsPerInsert(databaseType), Math.min(maxBindParameters(databaseType), maxInsertColumns(databaseType)) / colCount));
+
+            int rowsCount = batchRows.size();
+            int offset = 0;
+
+            PreparedStatement fullChunk = null;
+            try {
+                while (offset < rowsCount) {
+                    int rows = Math.min(rowsPerStatement, rowsCount - offset);
+
+                    int inserted;
+                    if (rows == rowsPerStatement) {
+                        if (fullChunk == null) {
+                            fullChunk = batchConnection.prepareStatement(buildMultiRowSQL(rows, colCount));
+                        }
+                        inserted = executeRows(fullChunk, offset, rows);
+                    } else {
+                        try (CachedStatement cached = batchConnection.statementCache.prepare(buildMultiRowSQL(rows, colCount))) {
+                            PreparedStatement ps = cached.statement;
+                            inserted = executeRows(ps, offset, rows);
+                        }
                     }
+
+                    // the database only reports the total, so per-row counts are known only when all rows were inserted
+                    int[] counts = new int[rows];
+                    Arrays.fill(counts, inserted == rows ? 1 : Statement.SUCCESS_NO_INFO);
+                    appendCounts(counts);
+
+                    offset += rows;
+                }
+            } finally {
+                batchRows.clear();
+                if (fullChunk != null) {
+                    fullChunk.close();
                 }
-                if (valueNew != null) {
-                    for (; i < varags && i < size; i++) {
-                        valueNew.getSQLHelperValue(cols.get(i).toLowerCase(), i + 1, ps);
+            }
+        }
+
+        private int executeRows(PreparedStatement ps, int offset, int rows) throws Exception {
+            int colCount = batchCols.size();
+            for (int r = 0; r < rows; r++) {
+                Object row = batchRows.get(offset + r);
+                int base = r * colCount;
+                if (row instanceof SQLHelperIndexedValue) {
+                    SQLHelperIndexedValue indexedValue = (SQLHelperIndexedValue) row;
+                    int[] ids = columnIds.get(indexedValue, batchColumns, batchCols);
+                    for (int c = 0; c < colCount; c++) {
+                        indexedValue.getSQLHelperValue(ids[c], base + c + 1, ps);
+                    }
+                } else if (row instanceof SQLHelperValue) {
+                    for (int c = 0; c < colCount; c++) {
+                        ((SQLHelperValue) row).getSQLHelperValue(batchCols.get(c).toLowerCase(), base + c + 1, ps);
+                    }
+                } else {
+                    Object[] values = (Object[]) row;
+                    for (int c = 0; c < colCount; c++) {
+                        binders.bind(ps, values[c], base + c + 1);
                     }
                 }
+            }
+            return ps.executeUpdate();
+        }
+
+        private String buildMultiRowSQL(int rows, int colCount) {
+            String row = "(" + Q_Marks(colCount) + ")";
+
+            StringBuilder sql = new StringBuilder(50 + rows * (row.length() + table.length() + batchColumns.length() + 20));
 
-                if (i < varags) {
-                    throw new SQLHelperException("SQL INSERT statement requires (" + varags + ") values but found (" + i + ") values, for columns: (" + columns + ")");
+            if (databaseType == DatabaseType.ORACLE) {
+                // Oracle has no multi-row VALUES, INSERT ALL does the same in one statement
+                sql.append("INSERT ALL");
+                for (int r = 0; r < rows; r++) {
+                    sql.append(" INTO ").append(table).append("(").append(batchColumns).append(") VALUES ").append(row);
                 }
+                sql.append(" SELECT 1 FROM DUAL");
+            } else {
+                sql.append("INSERT INTO ").append(table).append("(").append(batchColumns).append(") VALUES ");
+                for (int r = 0; r < rows; r++) {
+                    sql.append(r == 0 ? "" : ",").append(row);
+                }
+            }
 
-                reset();
-                res = ps.executeUpdate();
+            return sql.toString();
+        }
+
+        private void appendCounts(int[] counts) {
+            if (flushedCounts == null) {
+                flushedCounts = new int[Math.max(counts.length, batchSize)];
+            } else if (flushedCountsSize + counts.length > flushedCounts.length) {
+                int[] grown = new int[Math.max(flushedCounts.length * 2, flushedCountsSize + counts.length)];
+                System.arraycopy(flushedCounts, 0, grown, 0, flushedCountsSize);
+                flushedCounts = grown;
             }
 
-            return res;
+            System.arraycopy(counts, 0, flushedCounts, flushedCountsSize, counts.length);
+            flushedCountsSize += counts.length;
         }
 
         private void updateMetaData(SQLHelperStatmentMetaDataImplementation meta) throws Exception {
@@ -570,7 +1709,7 @@ public class SQLHelper implements AutoCloseable {
 
             int size = 0;
             //List<String> cols = null;
-            String _columns = null;
+            String _columns = columns;
 
             if (valuesArray == null && valueNew == null && valuesMap != null) {
                 StringBuilder columnBuilder = new StringBuilder(valuesMap.size() * 6);
@@ -585,7 +1724,7 @@ public class SQLHelper implements AutoCloseable {
                 _columns = columnBuilder.toString();
             } else {
                 if ((_columns == null || _columns.trim().isEmpty())) {
-                    _columns = getColumns(table, connection);
+                    _columns = schemaCatalog.getColumns(table);
                 }
                 //cols = new ArrayList<>();
                 StringTokenizer st = new StringTokenizer(_columns, ",", true);
@@ -656,10 +1795,24 @@ public class SQLHelper implements AutoCloseable {
 
         SQLHelperValue valueNew = null;
 
-        Connection connection;
+        ColumnIdsCache columnIds = new ColumnIdsCache();
+
+        // columns, condition and SQL of the last execution, reused while they don't change
+        String builtColumns = null;
+        List<String> builtCols = null;
+        String builtCondition = null;
+        String builtSQL = null;
+        String lastWhere = null;
+        String lastWhereCondition = null;
 
-        public SQLHelperUpdateStatmentImplementation(Connection conn, String table) {
-            this.connection = conn;
+        ParameterBinders binders = new ParameterBinders();
+
+        ConnectionManagerImplementation connectionManager;
+        SchemaCatalog schemaCatalog;
+
+        public SQLHelperUpdateStatmentImplementation(ConnectionManagerImplementation connectionManager, SchemaCatalog schemaCatalog, String table) {
+            this.connectionManager = connectionManager;
+            this.schemaCatalog = schemaCatalog;
             this.table = table;
         }
 
@@ -707,7 +1860,11 @@ public class SQLHelper implements AutoCloseable {
         @Override
         public SQLHelperUpdateStatment where(String condition, Object... values) {
             if (condition != null && !condition.trim().isEmpty()) {
-                this.condition = "WHERE " + condition;
+                if (!condition.equals(lastWhere)) {
+                    lastWhere = condition;
+                    lastWhereCondition = "WHERE " + condition;
+                }
+                this.condition = lastWhereCondition;
                 this.conditionValues = values;
             }
             return this;
@@ -735,15 +1892,45 @@ public class SQLHelper implements AutoCloseable {
 
         @Override
         public int execute() throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                List<String> cols = resolveColumns();
+
+                try (CachedStatement cached = connection.statementCache.prepare(buildSQL(cols))) {
+                    PreparedStatement ps = cached.statement;
+
+                    bindValues(ps, cols, getParameterCount(ps, cached.sql));
+                    reset();
+
+                    return ps.executeUpdate();
+                }
             }
+        }
 
-            int res = 0;
-            int size = 0;
-            List<String> cols = null;
+        @Override
+        public long executeLarge() throws Exception {
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                List<String> cols = resolveColumns();
+
+                try (CachedStatement cached = connection.statementCache.prepare(buildSQL(cols))) {
+                    PreparedStatement ps = cached.statement;
+
+                    bindValues(ps, cols, getParameterCount(ps, cached.sql));
+                    reset();
+
+                    return ps.executeLargeUpdate();
+                }
+            }
+        }
+
+        // resolve the SET columns and update 'columns' to match them.
+        private List<String> resolveColumns() throws Exception {
+            List<String> cols;
 
             if (valuesArray == null && valueNew == null && valuesMap != null) {
+                if (hasSameKeys(valuesMap, builtCols)) {
+                    columns = builtColumns;
+                    return builtCols;
+                }
                 StringBuilder columnBuilder = new StringBuilder(valuesMap.size() * 6);
                 cols = new ArrayList<>(valuesMap.size());
                 Iterator<String> iterator = valuesMap.keySet().iterator();
@@ -751,145 +1938,131 @@ public class SQLHelper implements AutoCloseable {
                     String next = iterator.next();
                     columnBuilder.append(iterator.hasNext() ? next + "," : next);
                     cols.add(next);
-                    size++;
                 }
                 columns = columnBuilder.toString();
             } else {
                 if ((columns == null || columns.trim().isEmpty())) {
-                    columns = getColumns(table, connection);
+                    columns = schemaCatalog.getColumns(table);
+                }
+                if (columns.equals(builtColumns)) {
+                    return builtCols;
                 }
                 cols = new ArrayList<>();
-                StringTokenizer st = new StringTokenizer(columns, ",", true);
+                StringTokenizer st = new StringTokenizer(columns, ",", false);
                 while (st.hasMoreElements()) {
-                    String next = st.nextToken();
-                    if (!next.equals(",")) {
-                        cols.add(next);
-                    } else {
-                        size++;
-                    }
+                    cols.add(st.nextToken());
                 }
-                size++;
             }
 
-            StringBuilder sql = new StringBuilder(50);
+            builtColumns = columns;
+            builtCols = cols;
+            builtSQL = null;
 
-            sql.append("UPDATE ").append(table).append(" SET ").append(Q_Marks(size, columns)).append(" ").append(condition == null ? "" : condition);
+            return cols;
+        }
 
-            try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+        // called after resolveColumns(), rebuilt only when the columns or the condition changed
+        private String buildSQL(List<String> cols) {
+            if (builtSQL == null || !Objects.equals(condition, builtCondition)) {
+                StringBuilder sql = new StringBuilder(50);
 
-                int varags = ps.getParameterMetaData().getParameterCount();
+                sql.append("UPDATE ").append(table).append(" SET ").append(Q_Marks(cols.size(), columns)).append(" ").append(condition == null ? "" : condition);
 
-                int i = 0;
+                builtSQL = sql.toString();
+                builtCondition = condition;
+            }
+            return builtSQL;
+        }
 
-                if (valuesArray != null) {
-                    for (; i < varags && i < valuesArray.length && i < size; i++) {
-                        setValuesForPreparedStatment(ps, this.valuesArray[i], i + 1);
-                    }
+        private void bindValues(PreparedStatement ps, List<String> cols, int varags) throws Exception {
+            int size = cols.size();
+            int i = 0;
+
+            if (valuesArray != null) {
+                for (; i < varags && i < valuesArray.length && i < size; i++) {
+                    binders.bind(ps, this.valuesArray[i], i + 1);
                 }
-                if (valuesMap != null) {
-                    for (; i < varags && i < valuesMap.size() && i < size; i++) {
-                        setValuesForPreparedStatment(ps, valuesMap.get(cols.get(i)), i + 1);
-                    }
+            }
+            if (valuesMap != null) {
+                for (; i < varags && i < valuesMap.size() && i < size; i++) {
+                    binders.bind(ps, valuesMap.get(cols.get(i)), i + 1);
                 }
-                if (valueNew != null) {
-                    for (; i < varags && i < size; i++) {
-                        valueNew.getSQLHelperValue(cols.get(i).toLowerCase(), i + 1, ps);
-                    }
+            }
+            if (valueNew instanceof SQLHelperIndexedValue) {
+                SQLHelperIndexedValue indexedValue = (SQLHelperIndexedValue) valueNew;
+                int[] ids = columnIds.get(indexedValue, columns, cols);
+                for (; i < varags && i < size; i++) {
+                    indexedValue.getSQLHelperValue(ids[i], i + 1, ps);
                 }
-
-                if (conditionValues != null) {
-                    for (int j = 0; i < varags && j < conditionValues.length; i++, j++) {
-                        setValuesForPreparedStatment(ps, this.conditionValues[j], i + 1);
-                    }
+            } else if (valueNew != null) {
+                for (; i < varags && i < size; i++) {
+                    valueNew.getSQLHelperValue(cols.get(i).toLowerCase(), i + 1, ps);
                 }
+            }
 
-                if (i < varags) {
-                    throw new SQLHelperException("SQL UPDATE statement requires (" + varags + ") values but found (" + i + ") values, for columns: (" + columns + ")");
+            if (conditionValues != null) {
+                for (int j = 0; i < varags && j < conditionValues.length; i++, j++) {
+                    binders.bind(ps, this.conditionValues[j], i + 1);
                 }
-                reset();
+            }
 
-                res = ps.executeUpdate();
+            if (i < varags) {
+                throw new SQLHelperException("SQL UPDATE statement requires (" + varags + ") values but found (" + i + ") values, for columns: (" + columns + ")");
             }
-            return res;
         }
 
         @Override
-        public long executeLarge() throws Exception {if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
+        public CompletableFuture<Integer> executeAsync() {
+            final SQLHelperUpdateStatmentImplementation copy = copy();
+            reset();
 
-            long res = 0;
-            int size = 0;
-            List<String> cols = null;
+            return connectionManager.submitAsync(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return copy.execute();
+                }
+            });
+        }
 
-            if (valuesArray == null && valueNew == null && valuesMap != null) {
-                StringBuilder columnBuilder = new StringBuilder(valuesMap.size() * 6);
-                cols = new ArrayList<>(valuesMap.size());
-                Iterator<String> iterator = valuesMap.keySet().iterator();
-                while (iterator.hasNext()) {
-                    String next = iterator.next();
-                    columnBuilder.append(iterator.hasNext() ? next + "," : next);
-                    cols.add(next);
-                    size++;
+        @Override
+        public CompletableFuture<Long> executeLargeAsync() {
+            final SQLHelperUpdateStatmentImplementation copy = copy();
+            reset();
+
+            return connectionManager.submitAsync(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return copy.executeLarge();
                 }
-                columns = columnBuilder.toString();
+            });
+        }
+
+        // a statement with the same columns, values and condition, for executing on another thread
+        private SQLHelperUpdateStatmentImplementation copy() {
+            SQLHelperUpdateStatmentImplementation copy = new SQLHelperUpdateStatmentImplementation(connectionManager, schemaCatalog, table);
+            copy.columns = columns;
+            copy.condition = condition;
+            copy.valuesArray = valuesArray;
+            copy.conditionValues = conditionValues;
+            copy.valueNew = valueNew;
+            copy.valuesMap = valuesMap == null ? null : new HashMap<>(valuesMap);
+            return copy;
+        }
+
+        @Override
+        public SQLHelperCompiledStatment compile() throws Exception {
+            String cols;
+            if (valuesArray == null && valueNew == null && valuesMap != null) {
+                cols = String.join(",", valuesMap.keySet());
+            } else if (columns == null || columns.trim().isEmpty()) {
+                cols = schemaCatalog.getColumns(table);
             } else {
-                if ((columns == null || columns.trim().isEmpty())) {
-                    columns = getColumns(table, connection);
-                }
-                cols = new ArrayList<>();
-                StringTokenizer st = new StringTokenizer(columns, ",", true);
-                while (st.hasMoreElements()) {
-                    String next = st.nextToken();
-                    if (!next.equals(",")) {
-                        cols.add(next);
-                    } else {
-                        size++;
-                    }
-                }
-                size++;
+                cols = columns;
             }
 
-            StringBuilder sql = new StringBuilder(50);
-
-            sql.append("UPDATE ").append(table).append(" SET ").append(Q_Marks(size, columns)).append(" ").append(condition == null ? "" : condition);
-
-            try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
-
-                int varags = ps.getParameterMetaData().getParameterCount();
+            String sql = "UPDATE " + table + " SET " + Q_Marks(cols.split(",").length, cols) + " " + (condition == null ? "" : condition);
 
-                int i = 0;
-
-                if (valuesArray != null) {
-                    for (; i < varags && i < valuesArray.length && i < size; i++) {
-                        setValuesForPreparedStatment(ps, this.valuesArray[i], i + 1);
-                    }
-                }
-                if (valuesMap != null) {
-                    for (; i < varags && i < valuesMap.size() && i < size; i++) {
-                        setValuesForPreparedStatment(ps, valuesMap.get(cols.get(i)), i + 1);
-                    }
-                }
-                if (valueNew != null) {
-                    for (; i < varags && i < size; i++) {
-                        valueNew.getSQLHelperValue(cols.get(i).toLowerCase(), i + 1, ps);
-                    }
-                }
-
-                if (conditionValues != null) {
-                    for (int j = 0; i < varags && j < conditionValues.length; i++, j++) {
-                        setValuesForPreparedStatment(ps, this.conditionValues[j], i + 1);
-                    }
-                }
-
-                if (i < varags) {
-                    throw new SQLHelperException("SQL UPDATE statement requires (" + varags + ") values but found (" + i + ") values, for columns: (" + columns + ")");
-                }
-                reset();
-
-                res = ps.executeLargeUpdate();
-            }
-            return res;
+            return new SQLHelperCompiledStatmentImplementation(connectionManager, "UPDATE", sql, cols, false);
         }
 
         private void updateMetaData(SQLHelperStatmentMetaDataImplementation meta) {
@@ -912,7 +2085,7 @@ public class SQLHelper implements AutoCloseable {
             } else {
                 if ((columns == null || columns.trim().isEmpty())) {
                     try {
-                        columns = getColumns(table, connection);
+                        columns = schemaCatalog.getColumns(table);
                     } catch (Exception ex) {
                         columns = null;
                     }
@@ -968,9 +2141,12 @@ public class SQLHelper implements AutoCloseable {
         }
 
         private int getReqValuesCount(String sql) {
+            if (!parameterMetaDataCheck) {
+                return countParameters(connectionManager, sql);
+            }
             int result = 0;
-            try (PreparedStatement ps = connection.prepareStatement(sql)) {
-                result = ps.getParameterMetaData().getParameterCount();
+            try (LeasedConnection connection = connectionManager.acquire(); CachedStatement cached = connection.statementCache.prepare(sql)) {
+                result = getParameterCount(cached.statement, cached.sql);
             } catch (Throwable t) {
                 result = -1;
             }
@@ -981,20 +2157,31 @@ public class SQLHelper implements AutoCloseable {
     private static class SQLHelperDeleteStatmentImplementation implements SQLHelperDeleteStatment {
 
         String table;
-        Connection connection;
+        ParameterBinders binders = new ParameterBinders();
+        ConnectionManagerImplementation connectionManager;
 
         String condition;
         Object[] conditionValues;
 
-        public SQLHelperDeleteStatmentImplementation(Connection conn, String table) {
-            this.connection = conn;
+        // condition and SQL of the last execution, reused while the condition doesn't change
+        String builtCondition = null;
+        String builtSQL = null;
+        String lastWhere = null;
+        String lastWhereCondition = null;
+
+        public SQLHelperDeleteStatmentImplementation(ConnectionManagerImplementation connectionManager, String table) {
+            this.connectionManager = connectionManager;
             this.table = table;
         }
 
         @Override
         public SQLHelperDeleteStatment where(String condition, Object... values) {
             if (condition != null && !condition.trim().isEmpty()) {
-                this.condition = "WHERE " + condition;
+                if (!condition.equals(lastWhere)) {
+                    lastWhere = condition;
+                    lastWhereCondition = "WHERE " + condition;
+                }
+                this.condition = lastWhereCondition;
                 this.conditionValues = values;
             }
             return this;
@@ -1017,68 +2204,105 @@ public class SQLHelper implements AutoCloseable {
 
         @Override
         public int execute() throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
-
-            int res = 0;
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                int res = 0;
 
-            StringBuilder sql = new StringBuilder(50);
-
-            sql.append("DELETE FROM ").append(table).append(" ").append(condition == null ? "" : condition);
-
-            try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+                try (CachedStatement cached = connection.statementCache.prepare(buildSQL())) {
+                    PreparedStatement ps = cached.statement;
 
-                int argsCount = ps.getParameterMetaData().getParameterCount();
+                    int argsCount = getParameterCount(ps, cached.sql);
 
-                if (this.conditionValues != null && this.conditionValues.length < argsCount) {
-                    throw new SQLHelperException("SQL DELETE statement requires (" + argsCount + ") values but found (" + (this.conditionValues == null ? 0 : this.conditionValues.length) + ") values.");
-                }
+                    if (this.conditionValues != null && this.conditionValues.length < argsCount) {
+                        throw new SQLHelperException("SQL DELETE statement requires (" + argsCount + ") values but found (" + (this.conditionValues == null ? 0 : this.conditionValues.length) + ") values.");
+                    }
 
-                if (conditionValues != null) {
-                    for (int i = 0; i < conditionValues.length; i++) {
-                        setValuesForPreparedStatment(ps, conditionValues[i], i + 1);
+                    if (conditionValues != null) {
+                        for (int i = 0; i < conditionValues.length; i++) {
+                            binders.bind(ps, conditionValues[i], i + 1);
+                        }
                     }
+                    reset();
+
+                    res = ps.executeUpdate();
                 }
-                reset();
 
-                res = ps.executeUpdate();
+                return res;
             }
-
-            return res;
         }
 
         @Override
         public long executeLarge() throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                long res = 0;
 
-            long res = 0;
+                try (CachedStatement cached = connection.statementCache.prepare(buildSQL())) {
+                    PreparedStatement ps = cached.statement;
 
-            StringBuilder sql = new StringBuilder(50);
+                    int argsCount = getParameterCount(ps, cached.sql);
 
-            sql.append("DELETE FROM ").append(table).append(" ").append(condition == null ? "" : condition);
+                    if (this.conditionValues != null && this.conditionValues.length < argsCount) {
+                        throw new SQLHelperException("SQL DELETE statement requires (" + argsCount + ") values but found (" + (this.conditionValues == null ? 0 : this.conditionValues.length) + ") values.");
+                    }
+
+                    if (conditionValues != null) {
+                        for (int i = 0; i < conditionValues.length; i++) {
+                            binders.bind(ps, conditionValues[i], i + 1);
+                        }
+                    }
+                    reset();
+
+                    res = ps.executeLargeUpdate();
+                }
 
-            try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+                return res;
+            }
+        }
 
-                int argsCount = ps.getParameterMetaData().getParameterCount();
+        @Override
+        public CompletableFuture<Integer> executeAsync() {
+            final SQLHelperDeleteStatmentImplementation copy = copy();
+            reset();
 
-                if (this.conditionValues != null && this.conditionValues.length < argsCount) {
-                    throw new SQLHelperException("SQL DELETE statement requires (" + argsCount + ") values but found (" + (this.conditionValues == null ? 0 : this.conditionValues.length) + ") values.");
+            return connectionManager.submitAsync(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return copy.execute();
                 }
+            });
+        }
 
-                if (conditionValues != null) {
-                    for (int i = 0; i < conditionValues.length; i++) {
-                        setValuesForPreparedStatment(ps, conditionValues[i], i + 1);
-                    }
+        @Override
+        public CompletableFuture<Long> executeLargeAsync() {
+            final SQLHelperDeleteStatmentImplementation copy = copy();
+            reset();
+
+            return connectionManager.submitAsync(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return copy.executeLarge();
                 }
-                reset();
+            });
+        }
 
-                res = ps.executeLargeUpdate();
-            }
+        // a statement with the same condition, for executing on another thread
+        private SQLHelperDeleteStatmentImplementation copy() {
+            SQLHelperDeleteStatmentImplementation copy = new SQLHelperDeleteStatmentImplementation(connectionManager, table);
+            copy.condition = condition;
+            copy.conditionValues = conditionValues;
+            return copy;
+        }
+
+        @Override
+        public SQLHelperCompiledStatment compile() {
+            return new SQLHelperCompiledStatmentImplementation(connectionManager, "DELETE", buildSQL(), null, false);
+        }
 
-            return res;
+        private String buildSQL() {
+            if (builtSQL == null || !Objects.equals(condition, builtCondition)) {
+                builtSQL = "DELETE FROM " + table + " " + (condition == null ? "" : condition);
+                builtCondition = condition;
+            }
+            return builtSQL;
         }
 
         private void updateMetaData(SQLHelperStatmentMetaDataImplementation meta) {
@@ -1106,9 +2330,12 @@ public class SQLHelper implements AutoCloseable {
         }
 
         private int getReqValuesCount(String sql) {
+            if (!parameterMetaDataCheck) {
+                return countParameters(connectionManager, sql);
+            }
             int result = 0;
-            try (PreparedStatement ps = connection.prepareStatement(sql)) {
-                result = ps.getParameterMetaData().getParameterCount();
+            try (LeasedConnection connection = connectionManager.acquire(); CachedStatement cached = connection.statementCache.prepare(sql)) {
+                result = getParameterCount(cached.statement, cached.sql);
             } catch (Throwable t) {
 
             }
@@ -1127,7 +2354,9 @@ public class SQLHelper implements AutoCloseable {
 
         boolean selectDistinct;
 
-        Connection connection = null;
+        ParameterBinders binders = new ParameterBinders();
+
+        ConnectionManagerImplementation connectionManager;
 
         int limitRows = 0;
 
@@ -1137,10 +2366,34 @@ public class SQLHelper implements AutoCloseable {
 
         boolean canDriverCastObjectToSpecificType = true;
 
+        int fetchSize = 0;
+
         DatabaseType databaseType;
 
-        private SQLHelperSelectStatmentImplementation(Connection connection, String tableName, DatabaseType databaseType) {
-            this.connection = connection;
+        // clauses and SQL of the last execution, reused while the clauses don't change
+        String builtSQL = null;
+        String builtColumns = null;
+        String builtWhere = null;
+        String builtGroupBy = null;
+        String builtHaving = null;
+        String builtOrderBy = null;
+        boolean builtDistinct = false;
+        int builtLimit = 0;
+        String lastWhere = null;
+        String lastWhereCondition = null;
+        String lastHaving = null;
+        String lastHavingCondition = null;
+
+        // parallel() range partitioning, applies to execute(Class) and stream(Class)
+        String parallelColumn = null;
+        int parallelPartitions = 0;
+
+        // row mapper of the last execute(Class), reused while the SQL and the class don't change
+        RowMapper<?> lastMapper = null;
+        String lastMapperSQL = null;
+
+        private SQLHelperSelectStatmentImplementation(ConnectionManagerImplementation connectionManager, String tableName, DatabaseType databaseType) {
+            this.connectionManager = connectionManager;
             this.table = tableName;
             this.databaseType = databaseType;
         }
@@ -1156,7 +2409,11 @@ public class SQLHelper implements AutoCloseable {
         @Override
         public SQLHelperSelectStatment where(String condition, Object... values) {
             if (condition != null && !condition.trim().isEmpty()) {
-                this.whereCondition = condition.toUpperCase().trim().startsWith("WHERE") ? condition : "WHERE " + condition;
+                if (!condition.equals(lastWhere)) {
+                    lastWhere = condition;
+                    lastWhereCondition = condition.toUpperCase().trim().startsWith("WHERE") ? condition : "WHERE " + condition;
+                }
+                this.whereCondition = lastWhereCondition;
                 this.conditionValues = values;
             }
             return this;
@@ -1165,7 +2422,11 @@ public class SQLHelper implements AutoCloseable {
         @Override
         public SQLHelperSelectStatment having(String condition, Object... values) {
             if (condition != null && !condition.trim().isEmpty()) {
-                this.having = condition.toUpperCase().trim().startsWith("HAVING") ? condition : "HAVING " + condition;
+                if (!condition.equals(lastHaving)) {
+                    lastHaving = condition;
+                    lastHavingCondition = condition.toUpperCase().trim().startsWith("HAVING") ? condition : "HAVING " + condition;
+                }
+                this.having = lastHavingCondition;
                 this.havingValues = values;
             }
             return this;
@@ -1209,1015 +2470,4851 @@ public class SQLHelper implements AutoCloseable {
             orderBY = null;
             groupBy = null;
             having = null;
+            havingValues = null;
+            fetchSize = 0;
+            parallelColumn = null;
+            parallelPartitions = 0;
 
             return this;
         }
 
         @Override
         public double max(String column) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
-            if (column == null) {
-                throw new NullPointerException("column is null in SQL MAX.");
-            }
-            if (column.trim().isEmpty()) {
-                throw new IllegalArgumentException("column is empty in SQL MAX.");
-            }
-            double res = Double.NaN;
-            StringBuilder sql = new StringBuilder(50);
-            sql.append("SELECT ").append("MAX(").append(selectDistinct ? "DISTINCT " : "").append(column).append(") FROM ").append(table).append(" ").append(whereCondition == null ? "" : whereCondition);
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                if (column == null) {
+                    throw new NullPointerException("column is null in SQL MAX.");
+                }
+                if (column.trim().isEmpty()) {
+                    throw new IllegalArgumentException("column is empty in SQL MAX.");
+                }
+                double res = Double.NaN;
+                StringBuilder sql = new StringBuilder(50);
+                sql.append("SELECT ").append("MAX(").append(selectDistinct ? "DISTINCT " : "").append(column).append(") FROM ").append(table).append(" ").append(whereCondition == null ? "" : whereCondition);
 
-            try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+                try (CachedStatement cached = connection.statementCache.prepare(sql.toString())) {
+                    PreparedStatement ps = cached.statement;
 
-                int argsCount = ps.getParameterMetaData().getParameterCount();
+                    int argsCount = getParameterCount(ps, cached.sql);
 
-                if (this.conditionValues != null && this.conditionValues.length < argsCount) {
-                    throw new SQLHelperException("SQL MAX() function in SELECT requires (" + argsCount + ") values but found (" + (this.conditionValues == null ? 0 : this.conditionValues.length) + ") values.");
-                }
+                    if (this.conditionValues != null && this.conditionValues.length < argsCount) {
+                        throw new SQLHelperException("SQL MAX() function in SELECT requires (" + argsCount + ") values but found (" + (this.conditionValues == null ? 0 : this.conditionValues.length) + ") values.");
+                    }
 
-                if (conditionValues != null) {
-                    for (int i = 0; i < conditionValues.length && i < argsCount; i++) {
-                        setValuesForPreparedStatment(ps, conditionValues[i], i + 1);
+                    if (conditionValues != null) {
+                        for (int i = 0; i < conditionValues.length && i < argsCount; i++) {
+                            binders.bind(ps, conditionValues[i], i + 1);
+                        }
                     }
-                }
 
-                reset();
+                    reset();
 
-                ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
 
-                    double r = rs.getDouble(1);
-                    if (!rs.wasNull()) {
-                        rs.close();
-                        res = r;
+                            double r = rs.getDouble(1);
+                            if (!rs.wasNull()) {
+                                res = r;
+                            }
+                        }
                     }
                 }
-                rs.close();
-            }
 
-            return res;
+                return res;
+            }
         }
 
         @Override
         public double min(String column) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
-            if (column == null) {
-                throw new NullPointerException("column is null in SQL MIN.");
-            }
-            if (column.trim().isEmpty()) {
-                throw new IllegalArgumentException("column is empty in SQL MIN.");
-            }
-            double res = Double.NaN;
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                if (column == null) {
+                    throw new NullPointerException("column is null in SQL MIN.");
+                }
+                if (column.trim().isEmpty()) {
+                    throw new IllegalArgumentException("column is empty in SQL MIN.");
+                }
+                double res = Double.NaN;
 
-            StringBuilder sql = new StringBuilder(50);
-            sql.append("SELECT ").append("MIN(").append(selectDistinct ? "DISTINCT " : "").append(column).append(") FROM ").append(table).append(" ").append(whereCondition == null ? "" : whereCondition);
+                StringBuilder sql = new StringBuilder(50);
+                sql.append("SELECT ").append("MIN(").append(selectDistinct ? "DISTINCT " : "").append(column).append(") FROM ").append(table).append(" ").append(whereCondition == null ? "" : whereCondition);
 
-            try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+                try (CachedStatement cached = connection.statementCache.prepare(sql.toString())) {
+                    PreparedStatement ps = cached.statement;
 
-                int argsCount = ps.getParameterMetaData().getParameterCount();
+                    int argsCount = getParameterCount(ps, cached.sql);
 
-                if (this.conditionValues != null && this.conditionValues.length < argsCount) {
-                    throw new SQLHelperException("SQL MIN() function in SELECT requires (" + argsCount + ") values but found (" + (this.conditionValues == null ? 0 : this.conditionValues.length) + ") values.");
-                }
+                    if (this.conditionValues != null && this.conditionValues.length < argsCount) {
+                        throw new SQLHelperException("SQL MIN() function in SELECT requires (" + argsCount + ") values but found (" + (this.conditionValues == null ? 0 : this.conditionValues.length) + ") values.");
+                    }
 
-                if (conditionValues != null) {
-                    for (int i = 0; i < conditionValues.length && i < argsCount; i++) {
-                        setValuesForPreparedStatment(ps, conditionValues[i], i + 1);
+                    if (conditionValues != null) {
+                        for (int i = 0; i < conditionValues.length && i < argsCount; i++) {
+                            binders.bind(ps, conditionValues[i], i + 1);
+                        }
                     }
-                }
 
-                reset();
+                    reset();
 
-                ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
 
-                    double r = rs.getDouble(1);
-                    if (!rs.wasNull()) {
-                        rs.close();
-                        res = r;
+                            double r = rs.getDouble(1);
+                            if (!rs.wasNull()) {
+                                res = r;
+                            }
+                        }
                     }
                 }
-                rs.close();
-            }
 
-            return res;
+                return res;
+            }
         }
 
         @Override
         public double sum(String column) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
-            if (column == null) {
-                throw new NullPointerException("column is null in SQL SUM.");
-            }
-            if (column.trim().isEmpty()) {
-                throw new IllegalArgumentException("column is empty in SQL SUM.");
-            }
-            double res = Double.NaN;
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                if (column == null) {
+                    throw new NullPointerException("column is null in SQL SUM.");
+                }
+                if (column.trim().isEmpty()) {
+                    throw new IllegalArgumentException("column is empty in SQL SUM.");
+                }
+                double res = Double.NaN;
 
-            StringBuilder sql = new StringBuilder(50);
-            sql.append("SELECT ").append("SUM(").append(selectDistinct ? "DISTINCT " : "").append(column).append(") FROM ").append(table).append(" ").append(whereCondition == null ? "" : whereCondition);
+                StringBuilder sql = new StringBuilder(50);
+                sql.append("SELECT ").append("SUM(").append(selectDistinct ? "DISTINCT " : "").append(column).append(") FROM ").append(table).append(" ").append(whereCondition == null ? "" : whereCondition);
 
-            try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+                try (CachedStatement cached = connection.statementCache.prepare(sql.toString())) {
+                    PreparedStatement ps = cached.statement;
 
-                int argsCount = ps.getParameterMetaData().getParameterCount();
+                    int argsCount = getParameterCount(ps, cached.sql);
 
-                if (this.conditionValues != null && this.conditionValues.length < argsCount) {
-                    throw new SQLHelperException("SQL SUM() function in SELECT requires (" + argsCount + ") values but found (" + (this.conditionValues == null ? 0 : this.conditionValues.length) + ") values.");
-                }
+                    if (this.conditionValues != null && this.conditionValues.length < argsCount) {
+                        throw new SQLHelperException("SQL SUM() function in SELECT requires (" + argsCount + ") values but found (" + (this.conditionValues == null ? 0 : this.conditionValues.length) + ") values.");
+                    }
 
-                if (conditionValues != null) {
-                    for (int i = 0; i < conditionValues.length && i < argsCount; i++) {
-                        setValuesForPreparedStatment(ps, conditionValues[i], i + 1);
+                    if (conditionValues != null) {
+                        for (int i = 0; i < conditionValues.length && i < argsCount; i++) {
+                            binders.bind(ps, conditionValues[i], i + 1);
+                        }
                     }
-                }
 
-                reset();
+                    reset();
 
-                ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
 
-                    double r = rs.getDouble(1);
-                    if (!rs.wasNull()) {
-                        rs.close();
-                        res = r;
+                            double r = rs.getDouble(1);
+                            if (!rs.wasNull()) {
+                                res = r;
+                            }
+                        }
                     }
                 }
-                rs.close();
-            }
 
-            return res;
+                return res;
+            }
         }
 
         @Override
         public double avg(String column) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
-            if (column == null) {
-                throw new NullPointerException("column is null in SQL AVG.");
-            }
-            if (column.trim().isEmpty()) {
-                throw new IllegalArgumentException("column is empty in SQL AVG.");
-            }
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                if (column == null) {
+                    throw new NullPointerException("column is null in SQL AVG.");
+                }
+                if (column.trim().isEmpty()) {
+                    throw new IllegalArgumentException("column is empty in SQL AVG.");
+                }
 
-            double res = Double.NaN;
+                double res = Double.NaN;
 
-            StringBuilder sql = new StringBuilder(50);
-            sql.append("SELECT ").append("AVG(").append(selectDistinct ? "DISTINCT " : "").append(column).append(") FROM ").append(table).append(" ").append(whereCondition == null ? "" : whereCondition);
+                StringBuilder sql = new StringBuilder(50);
+                sql.append("SELECT ").append("AVG(").append(selectDistinct ? "DISTINCT " : "").append(column).append(") FROM ").append(table).append(" ").append(whereCondition == null ? "" : whereCondition);
 
-            try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+                try (CachedStatement cached = connection.statementCache.prepare(sql.toString())) {
+                    PreparedStatement ps = cached.statement;
 
-                int argsCount = ps.getParameterMetaData().getParameterCount();
+                    int argsCount = getParameterCount(ps, cached.sql);
 
-                if (this.conditionValues != null && this.conditionValues.length < argsCount) {
-                    throw new SQLHelperException("SQL AVG() function in SELECT requires (" + argsCount + ") values but found (" + (this.conditionValues == null ? 0 : this.conditionValues.length) + ") values.");
-                }
+                    if (this.conditionValues != null && this.conditionValues.length < argsCount) {
+                        throw new SQLHelperException("SQL AVG() function in SELECT requires (" + argsCount + ") values but found (" + (this.conditionValues == null ? 0 : this.conditionValues.length) + ") values.");
+                    }
 
-                if (conditionValues != null) {
-                    for (int i = 0; i < conditionValues.length && i < argsCount; i++) {
-                        setValuesForPreparedStatment(ps, conditionValues[i], i + 1);
+                    if (conditionValues != null) {
+                        for (int i = 0; i < conditionValues.length && i < argsCount; i++) {
+                            binders.bind(ps, conditionValues[i], i + 1);
+                        }
                     }
-                }
 
-                reset();
+                    reset();
 
-                ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
 
-                    double r = rs.getDouble(1);
-                    if (!rs.wasNull()) {
-                        rs.close();
-                        res = r;
+                            double r = rs.getDouble(1);
+                            if (!rs.wasNull()) {
+                                res = r;
+                            }
+                        }
                     }
                 }
-                rs.close();
-            }
 
-            return res;
+                return res;
+            }
         }
 
         @Override
         public long count(String column) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
-            if (column == null) {
-                throw new NullPointerException("column is null in SQL COUNT.");
-            }
-            if (column.trim().isEmpty()) {
-                throw new IllegalArgumentException("column is empty in SQL COUNT.");
-            }
-            if (column.trim().equals("*") && selectDistinct) {
-                throw new SQLHelperException("DISTINCT can't be used with (*) in COUNT.");
-            }
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                if (column == null) {
+                    throw new NullPointerException("column is null in SQL COUNT.");
+                }
+                if (column.trim().isEmpty()) {
+                    throw new IllegalArgumentException("column is empty in SQL COUNT.");
+                }
+                if (column.trim().equals("*") && selectDistinct) {
+                    throw new SQLHelperException("DISTINCT can't be used with (*) in COUNT.");
+                }
 
-            long res = 0;
+                long res = 0;
 
-            StringBuilder sql = new StringBuilder(50);
-            sql.append("SELECT (").append("COUNT(").append(selectDistinct ? "DISTINCT " : "").append(column).append(")").append(") FROM ").append(table).append(" ").append(whereCondition == null ? "" : whereCondition);
-            try (PreparedStatement ps = connection.prepareStatement(sql.toString())) {
+                StringBuilder sql = new StringBuilder(50);
+                sql.append("SELECT (").append("COUNT(").append(selectDistinct ? "DISTINCT " : "").append(column).append(")").append(") FROM ").append(table).append(" ").append(whereCondition == null ? "" : whereCondition);
+                try (CachedStatement cached = connection.statementCache.prepare(sql.toString())) {
+                    PreparedStatement ps = cached.statement;
 
-                int argsCount = ps.getParameterMetaData().getParameterCount();
+                    int argsCount = getParameterCount(ps, cached.sql);
 
-                if (this.conditionValues != null && this.conditionValues.length < argsCount) {
-                    throw new SQLHelperException("SQL COUNT() function in SELECT requires (" + argsCount + ") values but found (" + (this.conditionValues == null ? 0 : this.conditionValues.length) + ") values.");
-                }
+                    if (this.conditionValues != null && this.conditionValues.length < argsCount) {
+                        throw new SQLHelperException("SQL COUNT() function in SELECT requires (" + argsCount + ") values but found (" + (this.conditionValues == null ? 0 : this.conditionValues.length) + ") values.");
+                    }
 
-                if (conditionValues != null) {
-                    for (int i = 0; i < conditionValues.length && i < argsCount; i++) {
-                        setValuesForPreparedStatment(ps, conditionValues[i], i + 1);
+                    if (conditionValues != null) {
+                        for (int i = 0; i < conditionValues.length && i < argsCount; i++) {
+                            binders.bind(ps, conditionValues[i], i + 1);
+                        }
                     }
-                }
 
-                reset();
+                    reset();
 
-                ResultSet rs = ps.executeQuery();
-                if (rs.next()) {
-                    res = rs.getLong(1);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
+                            res = rs.getLong(1);
+                        }
+                    }
                 }
-            }
 
-            return res;
+                return res;
+            }
         }
 
         @Override
-        public ResultSet execute() throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
-
-            StringBuilder sql = new StringBuilder(50);
+        public SQLHelperAggregateStatment aggregate() {
+            return new SQLHelperAggregateStatmentImplementation(this);
+        }
 
-            if (limitRows > 0 && databaseType == DatabaseType.ORACLE) {
-                sql.append("SELECT * FROM ( ");
+        // run the aggregates as the select columns after the GROUP BY columns
+        private SQLHelperAggregateResult executeAggregate(String[] functions, String[] columns) throws Exception {
+            if (functions.length == 0) {
+                throw new SQLHelperException("SQL SELECT aggregate requires at least one aggregate.");
             }
 
-            sql.append("SELECT ").append(limitRows > 0 && (databaseType == DatabaseType.MSACCESS) ? "TOP " + limitRows + " " : "")
-                    .append(this.selectDistinct ? "DISTINCT " : "").append(columns == null ? "*" : columns).append(" FROM ").append(table).append(" ").append(whereCondition == null ? "" : whereCondition)
-                    .append(groupBy == null ? "" : " GROUP BY ").append(groupBy == null ? "" : groupBy + " ").append(having == null ? "" : having).append(orderBY == null ? "" : " ORDER BY ").append(orderBY == null ? "" : orderBY + " ")
-                    .append(limitRows > 0 && (databaseType == DatabaseType.MYSQL || databaseType == DatabaseType.SQLITE || databaseType == DatabaseType.OTHER) ? " LIMIT " + limitRows + " " : "");
-
-            if (limitRows > 0 && databaseType == DatabaseType.ORACLE) {
-                sql.append(" ) WHERE ROWNUM <= ").append(limitRows);
+            StringBuilder cols = new StringBuilder(functions.length * 16 + (groupBy == null ? 0 : groupBy.length() + 2));
+            if (groupBy != null) {
+                cols.append(groupBy).append(", ");
             }
-
-            PreparedStatement ps = connection.prepareStatement(sql.toString());
-
-            int argsCount = ps.getParameterMetaData().getParameterCount();
-
-            if (this.conditionValues != null && this.conditionValues.length < argsCount) {
-                throw new SQLHelperException("SQL SELECT statement requires (" + argsCount + ") values but found (" + (this.conditionValues == null ? 0 : this.conditionValues.length) + ") values.");
+            for (int i = 0; i < functions.length; i++) {
+                if (functions[i].equals("COUNT") && selectDistinct && columns[i].equals("*")) {
+                    throw new SQLHelperException("DISTINCT can't be used with (*) in COUNT.");
+                }
+                cols.append(i == 0 ? "" : ", ").append(functions[i]).append("(").append(selectDistinct ? "DISTINCT " : "").append(columns[i]).append(")");
             }
 
-            if (conditionValues != null) {
-                for (int i = 0; i < conditionValues.length && i < argsCount; i++) {
-                    setValuesForPreparedStatment(ps, conditionValues[i], i + 1);
-                }
+            // the DISTINCT goes inside the aggregates, the builder keeps its columns if the select fails
+            String previousColumns = this.columns;
+            boolean previousDistinct = selectDistinct;
+            String sql;
+            this.columns = cols.toString();
+            selectDistinct = false;
+            try {
+                sql = buildSQL();
+            } finally {
+                this.columns = previousColumns;
+                selectDistinct = previousDistinct;
             }
-            reset();
 
-            ResultSet rs = ps.executeQuery();
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                try (CachedStatement cached = connection.statementCache.prepare(sql)) {
+                    PreparedStatement ps = cached.statement;
 
-            return rs;
-        }
+                    bindConditionValues(ps, cached.sql);
 
-        @Override
-        public <T extends SQLHelperValue> List<T> execute(Class<T> returnListType) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
+                    reset();
 
-            StringBuilder sql = new StringBuilder(50);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        int groupCount = rs.getMetaData().getColumnCount() - functions.length;
+                        boolean[] exact = new boolean[functions.length];
+                        for (int i = 0; i < functions.length; i++) {
+                            exact[i] = functions[i].equals("COUNT") || functions[i].equals("SUM");
+                        }
 
-            if (limitRows > 0 && databaseType == DatabaseType.ORACLE) {
-                sql.append("SELECT * FROM ( ");
+                        SQLHelperAggregateResultImplementation result = new SQLHelperAggregateResultImplementation(functions.length);
+                        while (rs.next()) {
+                            result.addRow(rs, groupCount, exact);
+                        }
+                        return result;
+                    }
+                }
             }
+        }
 
-            sql.append("SELECT ").append(limitRows > 0 && (databaseType == DatabaseType.MSACCESS) ? "TOP " + limitRows + " " : "")
-                    .append(this.selectDistinct ? "DISTINCT " : "").append(columns == null ? "*" : columns).append(" FROM ").append(table).append(" ").append(whereCondition == null ? "" : whereCondition)
-                    .append(groupBy == null ? "" : " GROUP BY ").append(groupBy == null ? "" : groupBy + " ").append(orderBY == null ? "" : " ORDER BY ").append(orderBY == null ? "" : orderBY + " ")
-                    .append(limitRows > 0 && (databaseType == DatabaseType.MYSQL || databaseType == DatabaseType.SQLITE || databaseType == DatabaseType.OTHER) ? " LIMIT " + limitRows + " " : "");
+        @Override
+        public ResultSet execute() throws Exception {
+            // the connection stays leased until the caller closes the result set
+            LeasedConnection connection = connectionManager.acquireDetached();
+            try {
+                String sqlString = buildSQL();
 
-            if (limitRows > 0 && databaseType == DatabaseType.ORACLE) {
-                sql.append(" ) WHERE ROWNUM <= ").append(limitRows);
-            }
+                PreparedStatement ps = connection.prepareStatement(sqlString);
+                try {
+                    bindConditionValues(ps, sqlString);
 
-            PreparedStatement ps = connection.prepareStatement(sql.toString());
+                    reset();
 
-            int argsCount = ps.getParameterMetaData().getParameterCount();
+                    ResultSet rs = ps.executeQuery();
 
-            if (this.conditionValues != null && this.conditionValues.length < argsCount) {
-                throw new SQLHelperException("SQL SELECT statement requires (" + argsCount + ") values but found (" + (this.conditionValues == null ? 0 : this.conditionValues.length) + ") values.");
+                    return connection.releaseOnClose(ps, rs);
+                } catch (Exception e) {
+                    ps.close();
+                    throw e;
+                }
+            } catch (Exception e) {
+                connection.close();
+                throw e;
             }
+        }
 
-            if (conditionValues != null) {
-                for (int i = 0; i < conditionValues.length; i++) {
-                    setValuesForPreparedStatment(ps, conditionValues[i], i + 1);
+        @Override
+        public <T extends SQLHelperValue> List<T> execute(Class<T> returnListType) throws Exception {
+            if (parallelColumn != null) {
+                List<CompletableFuture<List<T>>> partitions = executePartitions(returnListType);
+                List<T> resultList = new ArrayList<>();
+                try {
+                    for (CompletableFuture<List<T>> partition : partitions) {
+                        resultList.addAll(joinPartition(partition));
+                    }
+                } catch (Exception e) {
+                    // partitions that haven't started are skipped, the rows of running ones are dropped
+                    for (CompletableFuture<List<T>> partition : partitions) {
+                        partition.cancel(false);
+                    }
+                    throw e;
                 }
+                return resultList;
             }
 
-            List<T> resultList = new ArrayList<>();
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                List<T> resultList = new ArrayList<>();
 
-            reset();
+                try (CachedStatement cached = connection.statementCache.prepare(buildSQL())) {
+                    PreparedStatement ps = cached.statement;
 
-            ResultSet rs = ps.executeQuery();
+                    bindConditionValues(ps, cached.sql);
 
-            ResultSetMetaData rsMeta = rs.getMetaData();
+                    reset();
 
-            int colCount = rsMeta.getColumnCount();
+                    try (ResultSet rs = ps.executeQuery()) {
 
-            while (rs.next()) {
+                        RowMapper<T> mapper = rowMapper(returnListType, cached.sql, rs);
 
-                T obj = createConstructorAndNewInstance(returnListType);
+                        while (rs.next()) {
+                            resultList.add(mapper.map(rs));
+                        }
+                    }
+                }
 
-                for (int i = 0; i < colCount; i++) {
-                    String colName = rsMeta.getColumnLabel(i + 1).toLowerCase();
+                return resultList;
+            }
+        }
 
+        @Override
+        public SQLHelperSelectStatment fetchSize(int rows) {
+            fetchSize = rows;
+            return this;
+        }
+
+        @Override
+        public <T extends SQLHelperValue> SQLHelperIterator<T> iterator(Class<T> returnType) throws Exception {
+            return iterator(returnType, connectionManager.acquireDetached());
+        }
+
+        // the connection and the statement live until the iterator is closed
+        private <T extends SQLHelperValue> SQLHelperIterator<T> iterator(Class<T> returnType, LeasedConnection connection) throws Exception {
+            PreparedStatement ps = null;
+            try {
+                String sqlString = buildSQL();
+
+                ps = connection.prepareStatement(sqlString, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+
+                if (databaseType == DatabaseType.MYSQL) {
+                    // Connector/J reads the whole result into memory unless the fetch size is Integer.MIN_VALUE,
+                    // a positive fetch size reads in chunks only with useCursorFetch=true, otherwise stream row by row
+                    ps.setFetchSize(fetchSize > 0 && connectionManager.cursorFetch ? fetchSize : Integer.MIN_VALUE);
+                } else if (fetchSize > 0) {
+                    ps.setFetchSize(fetchSize);
+                }
+
+                bindConditionValues(ps, sqlString);
+
+                reset();
+
+                return new ResultSetIterator<>(connection, ps, ps.executeQuery(), returnType);
+            } catch (Exception e) {
+                if (ps != null) {
+                    ps.close();
+                }
+                connection.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public <T extends SQLHelperValue> Stream<T> stream(Class<T> returnType) throws Exception {
+            final SQLHelperIterator<T> iterator;
+            if (parallelColumn != null) {
+                iterator = new PartitionsIterator<>(executePartitions(returnType));
+            } else {
+                iterator = iterator(returnType);
+            }
+
+            return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                    .onClose(new Runnable() {
+                        @Override
+                        public void run() {
+                            iterator.close();
+                        }
+                    });
+        }
+
+        @Override
+        public SQLHelperSelectStatment parallel(String column, int partitions) {
+            if (column == null || column.trim().isEmpty() || partitions <= 1) {
+                parallelColumn = null;
+                parallelPartitions = 0;
+            } else {
+                parallelColumn = column.trim();
+                parallelPartitions = partitions;
+            }
+            return this;
+        }
+
+        // split the select by ranges of parallelColumn and run each range as an async select, the statement is reset.
+        private <T extends SQLHelperValue> List<CompletableFuture<List<T>>> executePartitions(final Class<T> returnType) throws Exception {
+            return submitPartitions(partitionRanges(), returnType);
+        }
+
+        // a select for each range of parallelColumn, the statement is reset.
+        private List<SQLHelperSelectStatmentImplementation> partitionRanges() throws Exception {
+            String column = parallelColumn;
+            int partitions = parallelPartitions;
+
+            Object[] cuts = partitionCuts(column, partitions);
+
+            List<SQLHelperSelectStatmentImplementation> ranges = new ArrayList<>(cuts.length + 1);
+            for (int i = 0; i <= cuts.length; i++) {
+                SQLHelperSelectStatmentImplementation range = copy();
+                range.parallelColumn = null;
+                range.parallelPartitions = 0;
+                if (cuts.length > 0) {
+                    if (i == 0) {
+                        range.andWhere("(" + column + " < ? OR " + column + " IS NULL)", new Object[]{cuts[0]});
+                    } else if (i == cuts.length) {
+                        range.andWhere(column + " >= ?", new Object[]{cuts[i - 1]});
+                    } else {
+                        range.andWhere(column + " >= ? AND " + column + " < ?", new Object[]{cuts[i - 1], cuts[i]});
+                    }
+                }
+                ranges.add(range);
+            }
+
+            reset();
+            return ranges;
+        }
+
+        private <T extends SQLHelperValue> List<CompletableFuture<List<T>>> submitPartitions(List<SQLHelperSelectStatmentImplementation> ranges, final Class<T> returnType) {
+            List<CompletableFuture<List<T>>> futures = new ArrayList<>(ranges.size());
+            for (final SQLHelperSelectStatmentImplementation range : ranges) {
+                futures.add(connectionManager.submitAsync(new Callable<List<T>>() {
+                    @Override
+                    public List<T> call() throws Exception {
+                        return range.execute(returnType);
+                    }
+                }));
+            }
+            return futures;
+        }
+
+        // the values splitting MIN..MAX of the column into equal ranges, empty if the rows can't be split.
+        private Object[] partitionCuts(String column, int partitions) throws Exception {
+            Object low;
+            Object high;
+
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                String sql = "SELECT MIN(" + column + "), MAX(" + column + ") FROM " + table + " " + (whereCondition == null ? "" : whereCondition);
+
+                try (CachedStatement cached = connection.statementCache.prepare(sql)) {
+                    PreparedStatement ps = cached.statement;
+
+                    int argsCount = getParameterCount(ps, cached.sql);
+                    if (conditionValues != null) {
+                        for (int i = 0; i < conditionValues.length && i < argsCount; i++) {
+                            binders.bind(ps, conditionValues[i], i + 1);
+                        }
+                    }
+
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (!rs.next()) {
+                            return new Object[0];
+                        }
+                        low = rs.getObject(1);
+                        high = rs.getObject(2);
+                    }
+                }
+            }
+
+            if (low == null || high == null) {
+                return new Object[0];
+            }
+
+            List<Object> cuts = new ArrayList<>(partitions - 1);
+
+            if (low instanceof Number && high instanceof Number) {
+                BigDecimal a = new BigDecimal(low.toString());
+                BigDecimal b = new BigDecimal(high.toString());
+                boolean integral = !(low instanceof Double || low instanceof Float) && a.scale() <= 0 && b.scale() <= 0;
+                BigDecimal span = b.subtract(a);
+
+                for (int i = 1; i < partitions; i++) {
+                    BigDecimal cut = a.add(span.multiply(BigDecimal.valueOf(i)).divide(BigDecimal.valueOf(partitions), integral ? 0 : 10, RoundingMode.FLOOR));
+                    Object value = integral ? (Object) cut.toBigInteger().longValue() : low instanceof BigDecimal ? cut : (Object) cut.doubleValue();
+                    if (cut.compareTo(a) > 0 && !cuts.contains(value)) {
+                        cuts.add(value);
+                    }
+                }
+            } else {
+                long a = toMillis(low, column);
+                long b = toMillis(high, column);
+
+                for (int i = 1; i < partitions; i++) {
+                    long cut = a + (long) ((b - a) * (double) i / partitions);
+                    Timestamp value = new Timestamp(cut);
+                    if (cut > a && !cuts.contains(value)) {
+                        cuts.add(value);
+                    }
+                }
+            }
+
+            return cuts.toArray();
+        }
+
+        private static long toMillis(Object value, String column) throws SQLHelperException {
+            if (value instanceof java.util.Date) {
+                return ((java.util.Date) value).getTime();
+            } else if (value instanceof LocalDateTime) {
+                return Timestamp.valueOf((LocalDateTime) value).getTime();
+            } else if (value instanceof LocalDate) {
+                return java.sql.Date.valueOf((LocalDate) value).getTime();
+            } else if (value instanceof OffsetDateTime) {
+                return ((OffsetDateTime) value).toInstant().toEpochMilli();
+            }
+            throw new SQLHelperException("SQL SELECT parallel() requires a numeric or date column but (" + column + ") is " + value.getClass().getName());
+        }
+
+        private static <T> List<T> joinPartition(CompletableFuture<List<T>> partition) throws Exception {
+            try {
+                return partition.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public <T extends SQLHelperValue> SQLHelperPage<T> pageAfter(String keyColumns, Object[] lastKeyValues, int pageSize, Class<T> returnType) throws Exception {
+            if (keyColumns == null) {
+                throw new NullPointerException("key columns is null.");
+            }
+            if (pageSize <= 0) {
+                throw new IllegalArgumentException("page size must be positive but found (" + pageSize + ").");
+            }
+
+            String[] keys = keyColumns.split(",");
+            boolean[] descending = new boolean[keys.length];
+            for (int i = 0; i < keys.length; i++) {
+                String key = keys[i].trim();
+                String upper = key.toUpperCase();
+                if (upper.endsWith(" DESC")) {
+                    descending[i] = true;
+                    key = key.substring(0, key.length() - 5).trim();
+                } else if (upper.endsWith(" ASC")) {
+                    key = key.substring(0, key.length() - 4).trim();
+                }
+                if (key.isEmpty()) {
+                    throw new IllegalArgumentException("key column is empty in: (" + keyColumns + ")");
+                }
+                keys[i] = key;
+            }
+
+            boolean firstPage = lastKeyValues == null || lastKeyValues.length == 0;
+            if (!firstPage && lastKeyValues.length != keys.length) {
+                throw new SQLHelperException("Keyset page requires (" + keys.length + ") key values but found (" + lastKeyValues.length + ") values, for key columns: (" + keyColumns + ")");
+            }
+
+            if (!firstPage) {
+                // (k1 > ?) OR (k1 = ? AND k2 > ?) ..., led by a plain range on k1 so every database can seek the index
+                // on it, Oracle and MS Access don't support row value comparison (k1, k2) > (?, ?)
+                StringBuilder seek = new StringBuilder(keys.length * 24);
+                List<Object> seekValues = new ArrayList<>();
+
+                if (keys.length == 1) {
+                    seek.append(keys[0]).append(descending[0] ? " < ?" : " > ?");
+                    seekValues.add(lastKeyValues[0]);
+                } else {
+                    seek.append(keys[0]).append(descending[0] ? " <= ?" : " >= ?").append(" AND (");
+                    seekValues.add(lastKeyValues[0]);
+
+                    for (int i = 0; i < keys.length; i++) {
+                        seek.append(i == 0 ? "(" : " OR (");
+                        for (int j = 0; j < i; j++) {
+                            seek.append(keys[j]).append(" = ? AND ");
+                            seekValues.add(lastKeyValues[j]);
+                        }
+                        seek.append(keys[i]).append(descending[i] ? " < ?" : " > ?").append(")");
+                        seekValues.add(lastKeyValues[i]);
+                    }
+                    seek.append(")");
+                }
+
+                andWhere(seek.toString(), seekValues.toArray());
+            }
+
+            StringBuilder order = new StringBuilder(keyColumns.length() + keys.length * 5);
+            for (int i = 0; i < keys.length; i++) {
+                order.append(i == 0 ? "" : ", ").append(keys[i]).append(descending[i] ? " DESC" : "");
+            }
+            orderBY = order.toString();
+            // one more row tells if there is a next page
+            limitRows = pageSize + 1;
+
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                List<T> rows = new ArrayList<>(Math.min(pageSize, 1024));
+                Object[] nextKeyValues = null;
+
+                try (CachedStatement cached = connection.statementCache.prepare(buildSQL())) {
+                    PreparedStatement ps = cached.statement;
+
+                    bindConditionValues(ps, cached.sql);
+
+                    reset();
+
+                    try (ResultSet rs = ps.executeQuery()) {
+                        RowMapper<T> mapper = rowMapper(returnType, cached.sql, rs);
+                        int[] keyIndexes = keyIndexes(rs, keys);
+                        Object[] rowKeys = new Object[keys.length];
+
+                        while (rs.next()) {
+                            if (rows.size() == pageSize) {
+                                nextKeyValues = rowKeys;
+                                break;
+                            }
+                            for (int i = 0; i < keyIndexes.length; i++) {
+                                rowKeys[i] = rs.getObject(keyIndexes[i]);
+                            }
+                            rows.add(mapper.map(rs));
+                        }
+                    }
+                }
+
+                return new SQLHelperPageImplementation<>(rows, nextKeyValues);
+            }
+        }
+
+        // add a predicate to the current WHERE condition, its values follow the WHERE values.
+        private void andWhere(String predicate, Object[] predicateValues) {
+            int whereCount = whereCondition == null || conditionValues == null ? 0 : conditionValues.length;
+            Object[] values = new Object[whereCount + predicateValues.length];
+            for (int i = 0; i < whereCount; i++) {
+                values[i] = conditionValues[i];
+            }
+            for (int i = 0; i < predicateValues.length; i++) {
+                values[whereCount + i] = predicateValues[i];
+            }
+
+            if (whereCondition == null) {
+                whereCondition = "WHERE " + predicate;
+            } else {
+                whereCondition = "WHERE (" + whereCondition.trim().substring(5).trim() + ") AND " + predicate;
+            }
+            conditionValues = values;
+        }
+
+        // result set index of each key column, matched by the name without a table prefix
+        private int[] keyIndexes(ResultSet rs, String[] keys) throws SQLException {
+            ResultSetMetaData rsMeta = rs.getMetaData();
+            int count = rsMeta.getColumnCount();
+            int[] indexes = new int[keys.length];
+
+            for (int i = 0; i < keys.length; i++) {
+                String key = keys[i].substring(keys[i].lastIndexOf('.') + 1);
+                for (int c = 1; c <= count && indexes[i] == 0; c++) {
+                    if (key.equalsIgnoreCase(rsMeta.getColumnLabel(c)) || key.equalsIgnoreCase(rsMeta.getColumnName(c))) {
+                        indexes[i] = c;
+                    }
+                }
+                if (indexes[i] == 0) {
+                    throw new SQLHelperException("Keyset page requires the key column (" + keys[i] + ") in the selected columns.");
+                }
+            }
+            return indexes;
+        }
+
+        @Override
+        public <T extends SQLHelperValue> Flow.Publisher<T> publisher(Class<T> returnType) {
+            if (returnType == null) {
+                throw new NullPointerException("return type is null.");
+            }
+            SQLHelperSelectStatmentImplementation copy = copy();
+            if (copy.fetchSize <= 0 && databaseType != DatabaseType.MYSQL) {
+                // rows are read from the database in chunks of this size while the subscriber requests more,
+                // MySQL keeps streaming row by row (see iterator())
+                copy.fetchSize = DEFAULT_PUBLISHER_FETCH_SIZE;
+            }
+            reset();
+
+            return new SelectPublisher<>(copy, returnType);
+        }
+
+        @Override
+        public <T extends SQLHelperValue> CompletableFuture<List<T>> executeAsync(final Class<T> returnListType) {
+            final SQLHelperSelectStatmentImplementation copy = copy();
+            reset();
+
+            if (copy.parallelColumn != null) {
+                // the ranges are async selects too, an async task waiting for them could hold the connection they need
+                return connectionManager.submitAsync(new Callable<List<SQLHelperSelectStatmentImplementation>>() {
+                    @Override
+                    public List<SQLHelperSelectStatmentImplementation> call() throws Exception {
+                        return copy.partitionRanges();
+                    }
+                }).thenCompose(new Function<List<SQLHelperSelectStatmentImplementation>, CompletableFuture<List<T>>>() {
+                    @Override
+                    public CompletableFuture<List<T>> apply(List<SQLHelperSelectStatmentImplementation> ranges) {
+                        final List<CompletableFuture<List<T>>> partitions = copy.submitPartitions(ranges, returnListType);
+                        return CompletableFuture.allOf(partitions.toArray(new CompletableFuture<?>[0])).thenApply(new Function<Void, List<T>>() {
+                            @Override
+                            public List<T> apply(Void done) {
+                                List<T> resultList = new ArrayList<>();
+                                for (CompletableFuture<List<T>> partition : partitions) {
+                                    resultList.addAll(partition.join());
+                                }
+                                return resultList;
+                            }
+                        });
+                    }
+                });
+            }
+
+            return connectionManager.submitAsync(new Callable<List<T>>() {
+                @Override
+                public List<T> call() throws Exception {
+                    return copy.execute(returnListType);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Double> maxAsync(final String column) {
+            final SQLHelperSelectStatmentImplementation copy = copy();
+            reset();
+
+            return connectionManager.submitAsync(new Callable<Double>() {
+                @Override
+                public Double call() throws Exception {
+                    return copy.max(column);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Double> minAsync(final String column) {
+            final SQLHelperSelectStatmentImplementation copy = copy();
+            reset();
+
+            return connectionManager.submitAsync(new Callable<Double>() {
+                @Override
+                public Double call() throws Exception {
+                    return copy.min(column);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Double> sumAsync(final String column) {
+            final SQLHelperSelectStatmentImplementation copy = copy();
+            reset();
+
+            return connectionManager.submitAsync(new Callable<Double>() {
+                @Override
+                public Double call() throws Exception {
+                    return copy.sum(column);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Double> avgAsync(final String column) {
+            final SQLHelperSelectStatmentImplementation copy = copy();
+            reset();
+
+            return connectionManager.submitAsync(new Callable<Double>() {
+                @Override
+                public Double call() throws Exception {
+                    return copy.avg(column);
+                }
+            });
+        }
+
+        @Override
+        public CompletableFuture<Long> countAsync(final String column) {
+            final SQLHelperSelectStatmentImplementation copy = copy();
+            reset();
+
+            return connectionManager.submitAsync(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    return copy.count(column);
+                }
+            });
+        }
+
+        // a statement with the same clauses, for executing on another thread
+        private SQLHelperSelectStatmentImplementation copy() {
+            SQLHelperSelectStatmentImplementation copy = new SQLHelperSelectStatmentImplementation(connectionManager, table, databaseType);
+            copy.columns = columns;
+            copy.whereCondition = whereCondition;
+            copy.conditionValues = conditionValues;
+            copy.groupBy = groupBy;
+            copy.having = having;
+            copy.havingValues = havingValues;
+            copy.orderBY = orderBY;
+            copy.selectDistinct = selectDistinct;
+            copy.limitRows = limitRows;
+            copy.fetchSize = fetchSize;
+            copy.parallelColumn = parallelColumn;
+            copy.parallelPartitions = parallelPartitions;
+            copy.canDriverCastObjectToSpecificType = canDriverCastObjectToSpecificType;
+            return copy;
+        }
+
+        @Override
+        public SQLHelperCompiledStatment compile() {
+            return new SQLHelperCompiledStatmentImplementation(connectionManager, "SELECT", buildSQL(), null, true);
+        }
+
+        private String buildSQL() {
+            if (builtSQL != null && selectDistinct == builtDistinct && limitRows == builtLimit && Objects.equals(columns, builtColumns)
+                    && Objects.equals(whereCondition, builtWhere) && Objects.equals(groupBy, builtGroupBy) && Objects.equals(having, builtHaving)
+                    && Objects.equals(orderBY, builtOrderBy)) {
+                return builtSQL;
+            }
+
+            StringBuilder sql = new StringBuilder(50);
+
+            if (limitRows > 0 && databaseType == DatabaseType.ORACLE) {
+                sql.append("SELECT * FROM ( ");
+            }
+
+            sql.append("SELECT ").append(limitRows > 0 && (databaseType == DatabaseType.MSACCESS) ? "TOP " + limitRows + " " : "")
+                    .append(this.selectDistinct ? "DISTINCT " : "").append(columns == null ? "*" : columns).append(" FROM ").append(table).append(" ").append(whereCondition == null ? "" : whereCondition)
+                    .append(groupBy == null ? "" : " GROUP BY ").append(groupBy == null ? "" : groupBy + " ").append(having == null ? "" : having).append(orderBY == null ? "" : " ORDER BY ").append(orderBY == null ? "" : orderBY + " ")
+                    .append(limitRows > 0 && (databaseType == DatabaseType.MYSQL || databaseType == DatabaseType.SQLITE || databaseType == DatabaseType.OTHER) ? " LIMIT " + limitRows + " " : "");
+
+            if (limitRows > 0 && databaseType == DatabaseType.ORACLE) {
+                sql.append(" ) WHERE ROWNUM <= ").append(limitRows);
+            }
+
+            builtSQL = sql.toString();
+            builtColumns = columns;
+            builtWhere = whereCondition;
+            builtGroupBy = groupBy;
+            builtHaving = having;
+            builtOrderBy = orderBY;
+            builtDistinct = selectDistinct;
+            builtLimit = limitRows;
+
+            return builtSQL;
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T extends SQLHelperValue> RowMapper<T> rowMapper(Class<T> returnType, String sql, ResultSet rs) throws Exception {
+            ResultSetMetaData rsMeta = rs.getMetaData();
+            RowMapper<?> mapper = lastMapper;
+            if (mapper == null || mapper.objectClass != returnType || !sql.equals(lastMapperSQL) || mapper.colNames.length != rsMeta.getColumnCount()) {
+                mapper = getRowMapper(returnType, rsMeta);
+                lastMapper = mapper;
+                lastMapperSQL = sql;
+            }
+            return (RowMapper<T>) mapper;
+        }
+
+        // bind WHERE values followed by HAVING values
+        private void bindConditionValues(PreparedStatement ps, String sql) throws Exception {
+            int argsCount = getParameterCount(ps, sql);
+
+            int whereCount = conditionValues == null ? 0 : conditionValues.length;
+            int havingCount = having == null || havingValues == null ? 0 : havingValues.length;
+
+            if ((conditionValues != null || havingCount > 0) && whereCount + havingCount < argsCount) {
+                throw new SQLHelperException("SQL SELECT statement requires (" + argsCount + ") values but found (" + (whereCount + havingCount) + ") values.");
+            }
+
+            int i = 0;
+            for (int j = 0; j < whereCount && i < argsCount; i++, j++) {
+                binders.bind(ps, conditionValues[j], i + 1);
+            }
+            for (int j = 0; j < havingCount && i < argsCount; i++, j++) {
+                binders.bind(ps, havingValues[j], i + 1);
+            }
+        }
+    }
+
+    private static class SQLHelperUpsertStatmentImplementation implements SQLHelperUpsertStatment {
+
+        String table;
+        String columns = null;
+        String keyColumns = null;
+
+        Object[] valuesArray = null;
+        SQLHelperValue valueNew = null;
+        Map<String, Object> valuesMap = null;
+
+        // batch, kept open between addBatch() calls until executeBatch()
+        LeasedConnection batchConnection = null;
+        UpsertPlan batchPlan = null;
+        PreparedStatement batchStatement = null;
+        int batchSize = 0;
+        int batchCount = 0;
+        int[] flushedCounts = null;
+        int flushedCountsSize = 0;
+
+        // plan of the last execution, reused while the columns and keys don't change
+        UpsertPlan plan = null;
+
+        ParameterBinders binders = new ParameterBinders();
+
+        ConnectionManagerImplementation connectionManager;
+        SchemaCatalog schemaCatalog;
+        DatabaseType databaseType;
+
+        public SQLHelperUpsertStatmentImplementation(ConnectionManagerImplementation connectionManager, SchemaCatalog schemaCatalog, String table, DatabaseType databaseType) {
+            this.connectionManager = connectionManager;
+            this.schemaCatalog = schemaCatalog;
+            this.table = table;
+            this.databaseType = databaseType;
+        }
+
+        @Override
+        public SQLHelperUpsertStatment setCols(String columns) {
+            this.columns = columns;
+            return this;
+        }
+
+        @Override
+        public SQLHelperUpsertStatment setValues(Object... values) {
+            this.valuesArray = values;
+            valuesMap = null;
+            valueNew = null;
+            return this;
+        }
+
+        @Override
+        public SQLHelperUpsertStatment setValues(SQLHelperValue valueObject) {
+            valueNew = valueObject;
+            valuesArray = null;
+            valuesMap = null;
+            return this;
+        }
+
+        @Override
+        public SQLHelperUpsertStatment setCol(String col, Object value) throws Exception {
+            if (col == null) {
+                throw new NullPointerException("column is null.");
+            } else if (col.trim().isEmpty()) {
+                throw new IllegalArgumentException("column is empty.");
+            }
+            if (valuesMap == null) {
+                valuesMap = new LinkedHashMap<>();
+            }
+            valuesMap.put(col.toLowerCase().trim(), value);
+
+            valuesArray = null;
+            valueNew = null;
+            return this;
+        }
+
+        @Override
+        public SQLHelperUpsertStatment keys(String keyColumns) {
+            this.keyColumns = keyColumns;
+            return this;
+        }
+
+        @Override
+        public SQLHelperUpsertStatment reset() {
+            columns = null;
+            keyColumns = null;
+            valuesArray = null;
+            valuesMap = null;
+            valueNew = null;
+            return this;
+        }
+
+        @Override
+        public int execute() throws Exception {
+            UpsertPlan current = resolvePlan();
+            Object row = currentRow(current);
+
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                reset();
+                return current.execute(connection, row, binders);
+            }
+        }
+
+        @Override
+        public SQLHelperUpsertStatment setBatchSize(int rows) {
+            batchSize = rows;
+            return this;
+        }
+
+        @Override
+        public SQLHelperUpsertStatment addBatch() throws Exception {
+            try {
+                addBatchRow();
+            } catch (Exception e) {
+                // nobody may call executeBatch() after an error, so the batch connection is given back now
+                try {
+                    clearBatch();
+                } catch (Exception closeError) {
+                    e.addSuppressed(closeError);
+                }
+                throw e;
+            }
+            return this;
+        }
+
+        private void addBatchRow() throws Exception {
+            UpsertPlan current = resolvePlan();
+            Object row = currentRow(current);
+
+            if (batchPlan == null) {
+                batchPlan = current;
+            } else if (batchPlan != current) {
+                throw new SQLHelperException("SQL UPSERT batch requires the same columns and keys for all rows, expected: (" + String.join(",", batchPlan.cols) + ") but found: (" + String.join(",", current.cols) + ")");
+            }
+            if (batchConnection == null) {
+                // all rows of the batch are sent through the same connection
+                batchConnection = connectionManager.acquireDetached();
+            }
+
+            if (current.sql != null) {
+                if (batchStatement == null) {
+                    batchStatement = batchConnection.prepareStatement(current.sql);
+                }
+                current.bindRow(batchStatement, row, null, binders);
+                batchStatement.addBatch();
+                batchCount++;
+            } else {
+                // no single statement upsert, the row is sent now, a SQLHelperValue may be reused for the next row
+                addCounts(new int[]{current.execute(batchConnection, row, binders)});
+            }
+
+            // keep the columns and keys for the next row, only values are cleared
+            valuesArray = null;
+            valuesMap = null;
+            valueNew = null;
+
+            if (batchSize > 0 && batchCount >= batchSize) {
+                flushBatch();
+            }
+        }
+
+        @Override
+        public int[] executeBatch() throws Exception {
+            if (batchPlan == null) {
+                return new int[0];
+            }
+
+            try {
+                flushBatch();
+
+                int[] res = new int[flushedCountsSize];
+                if (flushedCounts != null) {
+                    System.arraycopy(flushedCounts, 0, res, 0, flushedCountsSize);
+                }
+                return res;
+            } finally {
+                clearBatch();
+            }
+        }
+
+        // drop the batch rows, close the batch statement and give back the batch connection
+        private void clearBatch() throws Exception {
+            PreparedStatement statement = batchStatement;
+            LeasedConnection connection = batchConnection;
+            batchConnection = null;
+            batchStatement = null;
+            batchPlan = null;
+            batchCount = 0;
+            flushedCounts = null;
+            flushedCountsSize = 0;
+            try {
+                if (statement != null) {
+                    statement.close();
+                }
+            } finally {
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+        }
+
+        private void flushBatch() throws Exception {
+            if (batchCount == 0) {
+                return;
+            }
+
+            int[] counts = batchStatement.executeBatch();
+            batchCount = 0;
+            addCounts(counts);
+        }
+
+        private void addCounts(int[] counts) {
+            if (flushedCounts == null) {
+                flushedCounts = new int[Math.max(16, counts.length)];
+            } else if (flushedCountsSize + counts.length > flushedCounts.length) {
+                flushedCounts = Arrays.copyOf(flushedCounts, Math.max(flushedCounts.length * 2, flushedCountsSize + counts.length));
+            }
+            System.arraycopy(counts, 0, flushedCounts, flushedCountsSize, counts.length);
+            flushedCountsSize += counts.length;
+        }
+
+        private UpsertPlan resolvePlan() throws Exception {
+            List<String> cols;
+            if (valuesArray == null && valueNew == null && valuesMap != null) {
+                cols = new ArrayList<>(valuesMap.keySet());
+            } else {
+                String columnsString = columns == null || columns.trim().isEmpty() ? schemaCatalog.getColumns(table) : columns;
+                cols = new ArrayList<>();
+                StringTokenizer st = new StringTokenizer(columnsString, ",", false);
+                while (st.hasMoreElements()) {
+                    cols.add(st.nextToken().trim());
+                }
+            }
+
+            if (plan != null && plan.cols.equals(cols) && Objects.equals(plan.keyColumns, keyColumns)) {
+                return plan;
+            }
+
+            TableSchema schema = schemaCatalog.getTable(table);
+
+            List<String> keys = new ArrayList<>();
+            if (keyColumns == null || keyColumns.trim().isEmpty()) {
+                keys.addAll(Arrays.asList(schema.primaryKeys));
+            } else {
+                StringTokenizer st = new StringTokenizer(keyColumns, ",", false);
+                while (st.hasMoreElements()) {
+                    keys.add(st.nextToken().trim());
+                }
+            }
+            if (keys.isEmpty()) {
+                throw new SQLHelperException("SQL UPSERT requires key columns, use keys() or add a primary key to table: (" + table + ")");
+            }
+            for (String key : keys) {
+                if (!containsIgnoreCase(cols, key)) {
+                    throw new SQLHelperException("SQL UPSERT key column (" + key + ") is not in the columns: (" + String.join(",", cols) + ")");
+                }
+            }
+
+            String sql = upsertSQL(databaseType, schema, table, cols, keys);
+            plan = new UpsertPlan(table, cols, keys, keyColumns, sql);
+            return plan;
+        }
+
+        // the values of the current row in the plan columns order, or the SQLHelperValue
+        private Object currentRow(UpsertPlan current) throws Exception {
+            if (valueNew != null) {
+                return valueNew;
+            }
+            if (valuesMap != null) {
+                Object[] row = new Object[current.cols.size()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = valuesMap.get(current.cols.get(i));
+                }
+                return row;
+            }
+            int count = valuesArray == null ? 0 : valuesArray.length;
+            if (count != current.cols.size()) {
+                throw new SQLHelperException("SQL UPSERT statement requires (" + current.cols.size() + ") values but found (" + count + ") values, for columns: (" + String.join(",", current.cols) + ")");
+            }
+            return valuesArray;
+        }
+    }
+
+    // the statements of an upsert for one set of columns and keys
+    private static class UpsertPlan {
+
+        final List<String> cols;
+        final String keyColumns;
+        // single statement upsert, null if the database has none or the keys aren't unique
+        final String sql;
+        // sql is an Oracle MERGE
+        final boolean merge;
+        // fallback: UPDATE then INSERT when no row was updated
+        final String updateSQL;
+        final String insertSQL;
+        // column index of each UPDATE parameter
+        final int[] updateOrder;
+        // lower case column names passed to SQLHelperValue.getSQLHelperValue()
+        final String[] lowerCols;
+        final String columns;
+        final ColumnIdsCache columnIds = new ColumnIdsCache();
+
+        public UpsertPlan(String table, List<String> cols, List<String> keys, String keyColumns, String sql) {
+            this.cols = cols;
+            this.keyColumns = keyColumns;
+            this.sql = sql;
+            this.merge = sql != null && sql.startsWith("MERGE ");
+            this.columns = String.join(",", cols);
+            this.lowerCols = new String[cols.size()];
+            for (int i = 0; i < lowerCols.length; i++) {
+                lowerCols[i] = cols.get(i).toLowerCase();
+            }
+
+            List<Integer> order = new ArrayList<>(cols.size());
+            StringBuilder update = new StringBuilder(32 + cols.size() * 16);
+            update.append("UPDATE ").append(table).append(" SET ");
+            for (int i = 0; i < cols.size(); i++) {
+                if (!containsIgnoreCase(keys, cols.get(i))) {
+                    update.append(order.isEmpty() ? "" : ",").append(cols.get(i)).append(" = ?");
+                    order.add(i);
+                }
+            }
+            if (order.isEmpty()) {
+                // only key columns, set one of them to itself to find the row
+                update.append(keys.get(0)).append(" = ").append(keys.get(0));
+            }
+            update.append(" WHERE ");
+            for (int k = 0; k < keys.size(); k++) {
+                update.append(k == 0 ? "" : " AND ").append(keys.get(k)).append(" = ?");
+                for (int i = 0; i < cols.size(); i++) {
+                    if (cols.get(i).equalsIgnoreCase(keys.get(k))) {
+                        order.add(i);
+                        break;
+                    }
+                }
+            }
+            this.updateSQL = update.toString();
+            this.updateOrder = new int[order.size()];
+            for (int i = 0; i < updateOrder.length; i++) {
+                updateOrder[i] = order.get(i);
+            }
+
+            this.insertSQL = "INSERT INTO " + table + " (" + String.join(",", cols) + ") VALUES (" + Q_Marks(cols.size()) + ")";
+        }
+
+        int execute(LeasedConnection connection, Object row, ParameterBinders binders) throws Exception {
+            if (sql != null) {
+                try (CachedStatement cached = connection.statementCache.prepare(sql)) {
+                    bindRow(cached.statement, row, null, binders);
+                    try {
+                        return cached.statement.executeUpdate();
+                    } catch (SQLException e) {
+                        if (!merge || !isUniqueViolation(e)) {
+                            throw e;
+                        }
+                        // another MERGE inserted the key after this one looked for it, now the row is found
+                        return cached.statement.executeUpdate();
+                    }
+                }
+            }
+
+            int updated;
+            try (CachedStatement cached = connection.statementCache.prepare(updateSQL)) {
+                bindRow(cached.statement, row, updateOrder, binders);
+                updated = cached.statement.executeUpdate();
+            }
+            if (updated > 0) {
+                return updated;
+            }
+            try (CachedStatement cached = connection.statementCache.prepare(insertSQL)) {
+                bindRow(cached.statement, row, null, binders);
+                return cached.statement.executeUpdate();
+            }
+        }
+
+        // bind the row values in the columns order, or in 'order' when it is not null
+        void bindRow(PreparedStatement ps, Object row, int[] order, ParameterBinders binders) throws Exception {
+            int count = order == null ? cols.size() : order.length;
+            if (row instanceof SQLHelperIndexedValue) {
+                SQLHelperIndexedValue indexedValue = (SQLHelperIndexedValue) row;
+                int[] ids = columnIds.get(indexedValue, columns, cols);
+                for (int i = 0; i < count; i++) {
+                    indexedValue.getSQLHelperValue(ids[order == null ? i : order[i]], i + 1, ps);
+                }
+            } else if (row instanceof SQLHelperValue) {
+                SQLHelperValue value = (SQLHelperValue) row;
+                for (int i = 0; i < count; i++) {
+                    value.getSQLHelperValue(lowerCols[order == null ? i : order[i]], i + 1, ps);
+                }
+            } else {
+                Object[] values = (Object[]) row;
+                for (int i = 0; i < count; i++) {
+                    binders.bind(ps, values[order == null ? i : order[i]], i + 1);
+                }
+            }
+        }
+    }
+
+    private static class RowMapper<T extends SQLHelperValue> {
+
+        final Class<T> objectClass;
+        final MethodHandle factory;
+        // lower case column labels, in the result set order
+        final String[] colNames;
+        // column ids when objectClass is a SQLHelperIndexedValue, otherwise null
+        final int[] columnIds;
+
+        public RowMapper(Class<T> objectClass, MethodHandle factory, String[] colNames) throws Exception {
+            this.objectClass = objectClass;
+            this.factory = factory;
+            this.colNames = colNames;
+
+            if (SQLHelperIndexedValue.class.isAssignableFrom(objectClass)) {
+                SQLHelperIndexedValue prototype = (SQLHelperIndexedValue) newInstance(factory, objectClass);
+                columnIds = new int[colNames.length];
+                for (int i = 0; i < colNames.length; i++) {
+                    columnIds[i] = prototype.getColumnId(colNames[i]);
+                }
+            } else {
+                columnIds = null;
+            }
+        }
+
+        public T map(ResultSet rs) throws Exception {
+            // factory calls a constructor of objectClass, so the instance is a T
+            @SuppressWarnings("unchecked")
+            T obj = (T) newInstance(factory, objectClass);
+            if (columnIds != null) {
+                SQLHelperIndexedValue indexedValue = (SQLHelperIndexedValue) obj;
+                for (int i = 0; i < columnIds.length; i++) {
+                    indexedValue.setSQLHelperValue(columnIds[i], i + 1, rs);
+                }
+            } else {
+                for (String colName : colNames) {
                     obj.setSQLHelperValue(colName, rs);
                 }
-                resultList.add(obj);
             }
-            rs.close();
-            ps.close();
+            return obj;
+        }
+    }
+
+    // column ids of a SQLHelperIndexedValue, resolved once and reused while the columns and the class stay the same
+    private static class ColumnIdsCache {
+
+        Class<?> valueClass;
+        String columns;
+        int[] ids;
+
+        public int[] get(SQLHelperIndexedValue value, String columns, List<String> cols) {
+            if (ids == null || value.getClass() != valueClass || !columns.equals(this.columns)) {
+                int[] resolved = new int[cols.size()];
+                for (int i = 0; i < resolved.length; i++) {
+                    resolved[i] = value.getColumnId(cols.get(i).trim().toLowerCase());
+                }
+                this.ids = resolved;
+                this.valueClass = value.getClass();
+                this.columns = columns;
+            }
+            return ids;
+        }
+    }
+
+    // the binder of each parameter position, found once and reused while the values at that position keep the same class.
+    // a fixed size instance can be shared between threads: its array never grows, an entry is replaced when a value of
+    // another class comes at its position, but entries are immutable so a thread sees an old or a new one, at worst the
+    // binder is looked up again.
+    private static class ParameterBinders {
+
+        private static class Entry {
+
+            final Class<?> type;
+            final SQLHelperBinder<Object> binder;
+
+            Entry(Class<?> type, SQLHelperBinder<Object> binder) {
+                this.type = type;
+                this.binder = binder;
+            }
+        }
+
+        final boolean growable;
+        Entry[] entries;
+
+        public ParameterBinders() {
+            this.growable = true;
+            this.entries = new Entry[8];
+        }
+
+        public ParameterBinders(int size) {
+            this.growable = false;
+            this.entries = new Entry[size];
+        }
+
+        public void bind(PreparedStatement ps, Object value, int index) throws SQLException {
+            if (value == null) {
+                ps.setObject(index, null);
+                return;
+            }
+
+            Class<?> type = value.getClass();
+            Entry[] current = entries;
+            int position = index - 1;
+
+            if (position < current.length) {
+                Entry entry = current[position];
+                if (entry != null && entry.type == type) {
+                    entry.binder.bind(ps, index, value);
+                    return;
+                }
+            } else if (growable) {
+                current = entries = Arrays.copyOf(current, Math.max(index, current.length * 2));
+            }
+
+            SQLHelperBinder<Object> binder = getBinder(type);
+            if (position < current.length) {
+                current[position] = new Entry(type, binder);
+            }
+            binder.bind(ps, index, value);
+        }
+    }
+
+    private static class ResultSetIterator<T extends SQLHelperValue> implements SQLHelperIterator<T> {
+
+        LeasedConnection connection;
+        PreparedStatement ps;
+        ResultSet rs;
+        RowMapper<T> mapper;
+
+        boolean fetched = false;
+        boolean hasRow = false;
+        boolean closed = false;
+
+        public ResultSetIterator(LeasedConnection connection, PreparedStatement ps, ResultSet rs, Class<T> returnType) throws SQLException {
+            this.connection = connection;
+            this.ps = ps;
+            this.rs = rs;
+            try {
+                this.mapper = getRowMapper(returnType, rs.getMetaData());
+            } catch (SQLException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new SQLHelperException("Can't map rows to " + returnType.getName() + ": " + e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (closed) {
+                return false;
+            }
+            if (!fetched) {
+                try {
+                    hasRow = rs.next();
+                } catch (SQLException e) {
+                    close();
+                    throw new IllegalStateException("Error happened while reading the next row: " + e, e);
+                }
+                fetched = true;
+                if (!hasRow) {
+                    close();
+                }
+            }
+            return hasRow;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            fetched = false;
+
+            try {
+                return mapper.map(rs);
+            } catch (Exception e) {
+                close();
+                throw new IllegalStateException("Error happened while reading the next row: " + e, e);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            hasRow = false;
+            try {
+                rs.close();
+            } catch (SQLException e) {
+            }
+            try {
+                ps.close();
+            } catch (SQLException e) {
+            }
+            connection.close();
+        }
+    }
+
+    private static class SQLHelperAggregateStatmentImplementation implements SQLHelperAggregateStatment {
+
+        final SQLHelperSelectStatmentImplementation select;
+        final List<String> functions = new ArrayList<>(4);
+        final List<String> columns = new ArrayList<>(4);
+
+        public SQLHelperAggregateStatmentImplementation(SQLHelperSelectStatmentImplementation select) {
+            this.select = select;
+        }
+
+        @Override
+        public SQLHelperAggregateStatment max(String column) {
+            return add("MAX", column);
+        }
+
+        @Override
+        public SQLHelperAggregateStatment min(String column) {
+            return add("MIN", column);
+        }
+
+        @Override
+        public SQLHelperAggregateStatment sum(String column) {
+            return add("SUM", column);
+        }
+
+        @Override
+        public SQLHelperAggregateStatment avg(String column) {
+            return add("AVG", column);
+        }
+
+        @Override
+        public SQLHelperAggregateStatment count(String column) {
+            return add("COUNT", column);
+        }
+
+        private SQLHelperAggregateStatment add(String function, String column) {
+            if (column == null) {
+                throw new NullPointerException("column is null in SQL " + function + ".");
+            }
+            if (column.trim().isEmpty()) {
+                throw new IllegalArgumentException("column is empty in SQL " + function + ".");
+            }
+            functions.add(function);
+            columns.add(column.trim());
+            return this;
+        }
+
+        @Override
+        public SQLHelperAggregateResult execute() throws Exception {
+            return select.executeAggregate(functions.toArray(new String[0]), columns.toArray(new String[0]));
+        }
+
+        @Override
+        public CompletableFuture<SQLHelperAggregateResult> executeAsync() {
+            final SQLHelperSelectStatmentImplementation copy = select.copy();
+            final String[] functionsArray = functions.toArray(new String[0]);
+            final String[] columnsArray = columns.toArray(new String[0]);
+            select.reset();
+
+            return select.connectionManager.submitAsync(new Callable<SQLHelperAggregateResult>() {
+                @Override
+                public SQLHelperAggregateResult call() throws Exception {
+                    return copy.executeAggregate(functionsArray, columnsArray);
+                }
+            });
+        }
+    }
+
+    // the values of all groups in flat primitive arrays, row by row.
+    private static class SQLHelperAggregateResultImplementation implements SQLHelperAggregateResult {
+
+        final int width;
+        double[] values;
+        long[] longValues;
+        List<Object[]> groups = null;
+        int size = 0;
+
+        public SQLHelperAggregateResultImplementation(int width) {
+            this.width = width;
+            this.values = new double[width];
+            this.longValues = new long[width];
+        }
+
+        void addRow(ResultSet rs, int groupCount, boolean[] exact) throws SQLException {
+            if ((size + 1) * width > values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+                longValues = Arrays.copyOf(longValues, longValues.length * 2);
+            }
+            if (groupCount > 0) {
+                if (groups == null) {
+                    groups = new ArrayList<>();
+                }
+                Object[] group = new Object[groupCount];
+                for (int i = 0; i < groupCount; i++) {
+                    group[i] = rs.getObject(i + 1);
+                }
+                groups.add(group);
+            }
+
+            int base = size * width;
+            for (int i = 0; i < width; i++) {
+                int index = groupCount + i + 1;
+                if (exact[i]) {
+                    // SUM of decimals isn't whole, getLong() would throw or truncate on some drivers
+                    BigDecimal value = rs.getBigDecimal(index);
+                    if (value == null) {
+                        values[base + i] = Double.NaN;
+                    } else {
+                        values[base + i] = value.doubleValue();
+                        longValues[base + i] = toLong(value);
+                    }
+                } else {
+                    double value = rs.getDouble(index);
+                    values[base + i] = rs.wasNull() ? Double.NaN : value;
+                    longValues[base + i] = (long) value;
+                }
+            }
+            size++;
+        }
+
+        // the whole part of the value, clamped to the long range like a (long) cast of a double
+        private static long toLong(BigDecimal value) {
+            BigInteger whole = value.toBigInteger();
+            if (whole.bitLength() > 63) {
+                return whole.signum() > 0 ? Long.MAX_VALUE : Long.MIN_VALUE;
+            }
+            return whole.longValue();
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Object[] getGroup(int row) {
+            checkIndex(row, 0);
+            return groups == null ? new Object[0] : groups.get(row).clone();
+        }
+
+        @Override
+        public double get(int row, int aggregate) {
+            checkIndex(row, aggregate);
+            return values[row * width + aggregate];
+        }
+
+        @Override
+        public long getLong(int row, int aggregate) {
+            checkIndex(row, aggregate);
+            return longValues[row * width + aggregate];
+        }
+
+        @Override
+        public double get(int aggregate) {
+            return get(0, aggregate);
+        }
+
+        private void checkIndex(int row, int aggregate) {
+            if (row < 0 || row >= size || aggregate < 0 || aggregate >= width) {
+                throw new IndexOutOfBoundsException("row (" + row + ") of (" + size + "), aggregate (" + aggregate + ") of (" + width + ")");
+            }
+        }
+    }
+
+    // rows of parallel() partitions, each partition is given as soon as it completes.
+    private static class PartitionsIterator<T> implements SQLHelperIterator<T> {
+
+        final List<CompletableFuture<List<T>>> partitions;
+        final BlockingQueue<CompletableFuture<List<T>>> completed;
+        int remaining;
+        Iterator<T> current = null;
+        boolean closed = false;
+        // the error of the first failed partition, thrown again by later hasNext() calls
+        IllegalStateException failure = null;
+
+        public PartitionsIterator(List<CompletableFuture<List<T>>> partitions) {
+            this.partitions = partitions;
+            this.completed = new LinkedBlockingQueue<>();
+            this.remaining = partitions.size();
+
+            for (final CompletableFuture<List<T>> partition : partitions) {
+                partition.whenComplete(new BiConsumer<List<T>, Throwable>() {
+                    @Override
+                    public void accept(List<T> rows, Throwable failure) {
+                        completed.add(partition);
+                    }
+                });
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (failure != null) {
+                throw failure;
+            }
+            while (!closed && (current == null || !current.hasNext())) {
+                if (remaining == 0) {
+                    return false;
+                }
+                CompletableFuture<List<T>> partition;
+                try {
+                    partition = completed.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for a partition.", e);
+                }
+                remaining--;
+                try {
+                    current = partition.join().iterator();
+                } catch (CompletionException e) {
+                    // the other partitions are cancelled, their rows would never be read
+                    close();
+                    failure = new IllegalStateException("Error happened while reading a partition: " + e.getCause(), e.getCause());
+                    throw failure;
+                }
+            }
+            return !closed;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return current.next();
+        }
+
+        // partitions that haven't started are skipped, running ones finish but their rows are dropped
+        @Override
+        public void close() {
+            closed = true;
+            for (CompletableFuture<List<T>> partition : partitions) {
+                partition.cancel(false);
+            }
+        }
+    }
+
+    private static class SQLHelperPageImplementation<T> implements SQLHelperPage<T> {
+
+        final List<T> rows;
+        final Object[] nextKeyValues;
+
+        public SQLHelperPageImplementation(List<T> rows, Object[] nextKeyValues) {
+            this.rows = rows;
+            this.nextKeyValues = nextKeyValues;
+        }
+
+        @Override
+        public List<T> getRows() {
+            return rows;
+        }
+
+        @Override
+        public boolean hasNextPage() {
+            return nextKeyValues != null;
+        }
+
+        @Override
+        public Object[] getNextKeyValues() {
+            return nextKeyValues == null ? null : nextKeyValues.clone();
+        }
+    }
+
+    // a cold publisher, every subscriber runs its own copy of the select.
+    private static class SelectPublisher<T extends SQLHelperValue> implements Flow.Publisher<T> {
+
+        final SQLHelperSelectStatmentImplementation statement;
+        final Class<T> returnType;
+
+        public SelectPublisher(SQLHelperSelectStatmentImplementation statement, Class<T> returnType) {
+            this.statement = statement;
+            this.returnType = returnType;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super T> subscriber) {
+            if (subscriber == null) {
+                throw new NullPointerException("subscriber is null.");
+            }
+            RowSubscription<T> subscription = new RowSubscription<>(statement.copy(), returnType, subscriber);
+            subscriber.onSubscribe(subscription);
+        }
+    }
+
+    // reads the rows on the async executor only while the subscriber has requested rows, the select runs on the
+    // first request and the cursor is closed on the last row, on an error or on cancel. request() and cancel()
+    // only schedule the drain loop, the rows and the subscriber are used by one drain at a time.
+    private static class RowSubscription<T extends SQLHelperValue> implements Flow.Subscription, Runnable {
+
+        final SQLHelperSelectStatmentImplementation statement;
+        final Class<T> returnType;
+        final Flow.Subscriber<? super T> subscriber;
+
+        final AtomicLong requested = new AtomicLong();
+        final AtomicInteger wip = new AtomicInteger();
+        volatile boolean cancelled = false;
+        volatile Throwable badRequest = null;
+
+        // used by the drain loop only
+        SQLHelperIterator<T> rows = null;
+        boolean done = false;
+
+        public RowSubscription(SQLHelperSelectStatmentImplementation statement, Class<T> returnType, Flow.Subscriber<? super T> subscriber) {
+            this.statement = statement;
+            this.returnType = returnType;
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                badRequest = new IllegalArgumentException("requested rows must be positive but found (" + n + ").");
+            } else {
+                long current;
+                long next;
+                do {
+                    current = requested.get();
+                    next = current + n < 0 ? Long.MAX_VALUE : current + n;
+                } while (!requested.compareAndSet(current, next));
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            schedule();
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) {
+                if (!statement.connectionManager.runAsync(this)) {
+                    // the executor is shut down, the drain fails on the closed connection
+                    run();
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                drain();
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void drain() {
+            if (done) {
+                return;
+            }
+            if (cancelled) {
+                finish();
+                return;
+            }
+            if (badRequest != null) {
+                finish();
+                signalError(badRequest);
+                return;
+            }
+            if (rows == null) {
+                if (requested.get() == 0) {
+                    return;
+                }
+                try {
+                    // the cursor stays open while the subscriber is slow, keep it off the shared connection
+                    rows = statement.iterator(returnType, statement.connectionManager.acquireSideDetached());
+                } catch (Throwable e) {
+                    finish();
+                    signalError(e);
+                    return;
+                }
+            }
+            while (!cancelled && requested.get() > 0) {
+                T row;
+                try {
+                    row = rows.hasNext() ? rows.next() : null;
+                } catch (Throwable e) {
+                    finish();
+                    signalError(e);
+                    return;
+                }
+                if (row == null) {
+                    finish();
+                    try {
+                        subscriber.onComplete();
+                    } catch (Throwable e) {
+                        cancelled = true;
+                    }
+                    return;
+                }
+                if (requested.get() != Long.MAX_VALUE) {
+                    requested.decrementAndGet();
+                }
+                try {
+                    subscriber.onNext(row);
+                } catch (Throwable e) {
+                    // a subscriber that throws cancels the subscription, it gets no other signal
+                    cancelled = true;
+                    finish();
+                    return;
+                }
+            }
+            if (cancelled) {
+                finish();
+            }
+        }
+
+        private void signalError(Throwable e) {
+            try {
+                subscriber.onError(e);
+            } catch (Throwable ignored) {
+                cancelled = true;
+            }
+        }
+
+        private void finish() {
+            done = true;
+            if (rows != null) {
+                rows.close();
+            }
+        }
+    }
+
+    // immutable, the statement cache gives each thread its own PreparedStatement
+    private static class SQLHelperCompiledStatmentImplementation implements SQLHelperCompiledStatment {
+
+        final ConnectionManagerImplementation connectionManager;
+        final String type;
+        final String sql;
+        final String columns;
+        final int requiredValuesCount;
+        final boolean query;
+        final ParameterBinders binders;
+
+        public SQLHelperCompiledStatmentImplementation(ConnectionManagerImplementation connectionManager, String type, String sql, String columns, boolean query) {
+            this.connectionManager = connectionManager;
+            this.type = type;
+            this.sql = sql;
+            this.columns = columns;
+            this.requiredValuesCount = countParameters(connectionManager, sql);
+            this.query = query;
+            this.binders = requiredValuesCount == -1 ? new ParameterBinders() : new ParameterBinders(requiredValuesCount);
+        }
+
+        @Override
+        public String getSQLString() {
+            return sql;
+        }
+
+        @Override
+        public String getColumns() {
+            return columns;
+        }
+
+        @Override
+        public int getRequiredValuesCount() {
+            return requiredValuesCount;
+        }
+
+        @Override
+        public int execute(Object... values) throws Exception {
+            if (query) {
+                throw new SQLHelperException("SQL SELECT statement can't be executed as an update, use query().");
+            }
+
+            try (LeasedConnection connection = connectionManager.acquire(); CachedStatement cached = connection.statementCache.prepare(sql)) {
+                PreparedStatement ps = cached.statement;
+                bindValues(ps, values);
+                return ps.executeUpdate();
+            }
+        }
+
+        @Override
+        public long executeLarge(Object... values) throws Exception {
+            if (query) {
+                throw new SQLHelperException("SQL SELECT statement can't be executed as an update, use query().");
+            }
+
+            try (LeasedConnection connection = connectionManager.acquire(); CachedStatement cached = connection.statementCache.prepare(sql)) {
+                PreparedStatement ps = cached.statement;
+                bindValues(ps, values);
+                return ps.executeLargeUpdate();
+            }
+        }
+
+        @Override
+        public <T extends SQLHelperValue> List<T> query(Class<T> returnListType, Object... values) throws Exception {
+            if (!query) {
+                throw new SQLHelperException("SQL " + type + " statement has no result, use execute().");
+            }
+
+            List<T> resultList = new ArrayList<>();
+
+            try (LeasedConnection connection = connectionManager.acquire(); CachedStatement cached = connection.statementCache.prepare(sql)) {
+                PreparedStatement ps = cached.statement;
+                bindValues(ps, values);
+
+                try (ResultSet rs = ps.executeQuery()) {
+                    RowMapper<T> mapper = getRowMapper(returnListType, rs.getMetaData());
+
+                    while (rs.next()) {
+                        resultList.add(mapper.map(rs));
+                    }
+                }
+            }
+
+            return resultList;
+        }
+
+        private void bindValues(PreparedStatement ps, Object[] values) throws Exception {
+            int count = values == null ? 0 : values.length;
+            int required = requiredValuesCount == -1 ? getParameterCount(ps, sql) : requiredValuesCount;
+
+            if (count != required) {
+                throw new SQLHelperException("SQL " + type + " statement requires (" + required + ") values but found (" + count + ") values.");
+            }
+
+            for (int i = 0; i < count; i++) {
+                binders.bind(ps, values[i], i + 1);
+            }
+        }
+    }
+
+    private static class SQLHelperStatmentMetaDataImplementation implements SQLHelperStatmentMetaData {
+
+        // 0 -> SQLString
+        // 1 -> columns
+        // 2 -> whereString
+        // 3 -> havingString
+        // 4 -> table
+        // 5 -> values
+        // 6 -> where values
+        // 7 -> having values
+        // 8 -> required values count
+        public Object[] objects = new Object[9];
+
+        public SQLHelperStatmentMetaDataImplementation() {
+            objects[8] = 0;
+        }
+
+        @Override
+        public String getSQLString() throws Exception {
+            return (String) objects[0];
+        }
+
+        @Override
+        public String getColumns() throws Exception {
+            return (String) objects[1];
+        }
+
+        @Override
+        public String getWhereString() {
+            return (String) objects[2];
+        }
+
+        @Override
+        public String getHavingString() {
+            return (String) objects[3];
+        }
+
+        @Override
+        public String getTable() {
+            return (String) objects[4];
+        }
+
+        @Override
+        public Object[] getValues() {
+            return (Object[]) objects[5];
+        }
+
+        @Override
+        public Object[] getWhereValues() {
+            return (Object[]) objects[6];
+        }
+
+        @Override
+        public Object[] getHavingValues() {
+            return (Object[]) objects[7];
+        }
+
+        @Override
+        public int getRequiredValuesCount() throws Exception {
+            return (int) objects[8];
+        }
+
+        public Object[] getAllObjects() throws Exception {
+            Object[] _objects = new Object[objects.length];
+
+            System.arraycopy(objects, 0, _objects, 0, objects.length);
+
+            return _objects;
+        }
+    }
+
+    private static class TableManagerImplementation implements TableManager {
+
+        ConnectionManagerImplementation connectionManager;
+        SchemaCatalog schemaCatalog;
+        DatabaseType databaseType;
+
+        public TableManagerImplementation(ConnectionManagerImplementation connectionManager, SchemaCatalog schemaCatalog, DatabaseType databaseType) {
+            this.connectionManager = connectionManager;
+            this.schemaCatalog = schemaCatalog;
+            this.databaseType = databaseType;
+        }
+
+        @Override
+        public void dropTable(String table) throws Exception {
+            executeDDL("DROP TABLE " + table, table, false);
+        }
+
+        @Override
+        public void dropTableIfExists(String table) throws Exception {
+            // the check and the DROP use the same connection
+            LeasedConnection connection = connectionManager.acquire();
+            try {
+                if (supportsIfExists()) {
+                    executeDDL("DROP TABLE IF EXISTS " + table, table, false);
+                } else if (isTableExists(table)) {
+                    dropTable(table);
+                }
+            } finally {
+                connection.close();
+            }
+        }
+
+        @Override
+        public void createTable(String table, String columnsNamesWithType) throws Exception {
+            StringBuilder sqlS = new StringBuilder(50);
+            sqlS.append("CREATE TABLE ").append(table).append(" ( ").append(columnsNamesWithType).append(" ) ");
+
+            executeDDL(sqlS.toString(), table, true);
+        }
+
+        @Override
+        public void createTableIfNotExists(String table, String columnsNamesWithType) throws Exception {
+            // the check and the CREATE use the same connection
+            LeasedConnection connection = connectionManager.acquire();
+            try {
+                if (supportsIfExists()) {
+                    StringBuilder sqlS = new StringBuilder(50);
+                    sqlS.append("CREATE TABLE IF NOT EXISTS ").append(table).append(" ( ").append(columnsNamesWithType).append(" ) ");
+
+                    executeDDL(sqlS.toString(), table, true);
+                } else if (!isTableExists(table)) {
+                    createTable(table, columnsNamesWithType);
+                }
+            } finally {
+                connection.close();
+            }
+        }
+
+        @Override
+        public boolean isTableExists(String table) throws Exception {
+            // fails after the connection was closed even when the answer is cached
+            LeasedConnection connection = connectionManager.acquire();
+            try {
+                return schemaCatalog.isTableExists(table);
+            } finally {
+                connection.close();
+            }
+        }
+
+        // MySQL and SQLite support CREATE TABLE IF NOT EXISTS and DROP TABLE IF EXISTS
+        private boolean supportsIfExists() {
+            return databaseType == DatabaseType.MYSQL || databaseType == DatabaseType.SQLITE;
+        }
+
+        // execute CREATE or DROP TABLE and update the cached existence of the table
+        private void executeDDL(String sql, String table, boolean tableExistsAfter) throws Exception {
+            try (LeasedConnection connection = connectionManager.acquire(); PreparedStatement ps = connection.prepareStatement(sql)) {
+                ps.executeUpdate();
+            } catch (Exception e) {
+                schemaCatalog.invalidate(table);
+                throw e;
+            }
+            schemaCatalog.setTableExists(table, tableExistsAfter);
+        }
+
+        @Override
+        public void addColumn(String table, String columnWithType) throws Exception {
+            try (LeasedConnection connection = connectionManager.acquire(); PreparedStatement ps = connection.prepareStatement("ALTER TABLE " + table + " ADD " + columnWithType)) {
+                ps.executeUpdate();
+            } finally {
+                schemaCatalog.invalidate(table);
+            }
+        }
+
+        @Override
+        public void dropColumn(String table, String column) throws Exception {
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                dropColumnFromTable(connection, table, column);
+            } finally {
+                schemaCatalog.invalidate(table);
+                schemaCatalog.invalidate(table + "_sqlhelper_old");
+            }
+        }
+
+        private void dropColumnFromTable(LeasedConnection connection, String table, String column) throws Exception {
+            String columns = schemaCatalog.getColumns(table);
+            if (!columns.toLowerCase().contains(column.toLowerCase())) {
+                System.err.println("COLUMN NOT FOUND");
+                return;
+            }
+            try (PreparedStatement ps = connection.prepareStatement("ALTER TABLE " + table + " DROP COLUMN " + column)) {
+                ps.executeUpdate();
+            } catch (Throwable t) {
+                System.err.println("SSSSSSSS" + t);
+
+                String[] cols = columns.split(",");
+                String[] colsWithoutColumn = new String[cols.length - 1];
+                String[] types = new String[colsWithoutColumn.length];
+                int index = 0;
+
+                for (String col : cols) {
+                    if (!col.equalsIgnoreCase(column)) {
+                        colsWithoutColumn[index++] = col;
+                    }
+                }
+
+                try {
+                    try (PreparedStatement ps = connection.prepareStatement("SELECT * FROM " + table)) {
+                        for (int i = 0; i < colsWithoutColumn.length; i++) {
+                            types[i] = ps.getMetaData().getColumnTypeName(i + 1) + "(" + ps.getMetaData().getColumnDisplaySize(i + 1) + ")";
+                        }
+                    }
+
+                    StringBuilder sql = new StringBuilder((colsWithoutColumn.length * 6) * 5);
+                    StringBuilder sqlColumns = new StringBuilder(colsWithoutColumn.length * 6);
+                    for (int i = 0; i < colsWithoutColumn.length; i++) {
+                        if (i == colsWithoutColumn.length - 1) {
+                            sql.append(colsWithoutColumn[i]).append(" ").append(types[i]);
+                            sqlColumns.append(colsWithoutColumn[i]);
+                        } else {
+                            sql.append(colsWithoutColumn[i]).append(" ").append(types[i]).append(",");
+                            sqlColumns.append(colsWithoutColumn[i]).append(",");
+                        }
+                    }
+
+                    try (PreparedStatement ps = connection.prepareStatement("ALTER TABLE " + table + " RENAME TO " + table + "_sqlhelper_old")) {
+                        ps.executeUpdate();
+                    }
+
+                    createTable(table, sql.toString());
+
+                    System.out.println("INSERT INTO " + table + " (" + sqlColumns + ")" + " SELECT " + sqlColumns + " FROM " + table + "_sqlhelper_old");
+
+                    try (PreparedStatement ps = connection.prepareStatement("INSERT INTO " + table + " (" + sqlColumns + ")" + " SELECT " + sqlColumns + " FROM " + table + "_sqlhelper_old")) {
+                        ps.executeUpdate();
+                    }
+                    try (PreparedStatement ps = connection.prepareStatement("DROP TABLE " + table + "_sqlhelper_old")) {
+                        ps.executeUpdate();
+                    }
+                } catch (Throwable e) {
+                    try {
+                        if (isTableExists(table + "_sqlhelper_old")) {
+                            dropTableIfExists(table);
+                            try (PreparedStatement ps = connection.prepareStatement("ALTER TABLE " + table + "_sqlhelper_old" + " RENAME TO " + table)) {
+                                ps.executeUpdate();
+                            }
+                        }
+
+                        try (PreparedStatement ps = connection.prepareStatement("SELECT * INTO " + table + "_sqlhelper_old" + " FROM " + table)) {
+                            ps.close();
+                        }
+                    } catch (Throwable e1) {
+                        throw new SQLFeatureNotSupportedException("drop column is not supported.");
+                    }
+                }
+            }
+        }
+
+        @Override
+        public String getColumns(String table) throws Exception {
+            return schemaCatalog.getColumns(table);
+        }
+    }
+
+    private static class TransactionManagerImplementation implements TransactionManager {
+
+        ConnectionManagerImplementation connectionManager;
+
+        public TransactionManagerImplementation(ConnectionManagerImplementation connectionManager) {
+            this.connectionManager = connectionManager;
+        }
+
+        // the connection stays leased by the current thread until commit or rollback
+        @Override
+        public void begin() throws Exception {
+            LeasedConnection connection = connectionManager.acquire();
+
+            if (connection.connection.getAutoCommit()) {
+                try {
+                    connection.connection.setAutoCommit(false);
+                    connection.connection.setSavepoint();
+                } catch (Exception e) {
+                    connection.close();
+                    throw e;
+                }
+            } else {
+                // a transaction is already going and holds the connection
+                connection.close();
+            }
+        }
+
+        @Override
+        public void commit() throws Exception {
+            LeasedConnection connection = connectionManager.current();
+
+            if (connection == null || connection.connection.getAutoCommit()) {
+                throw new SQLHelperException("Can't commit while no transaction is going.");
+            }
+
+            try {
+                connection.connection.commit();
+                connection.connection.setAutoCommit(true);
+            } finally {
+                connection.close();
+            }
+        }
+
+        @Override
+        public void rollback() throws Exception {
+            LeasedConnection connection = connectionManager.current();
+
+            if (connection == null || connection.connection.getAutoCommit()) {
+                throw new SQLHelperException("Can't rollback while no transaction is going.");
+            }
+
+            try {
+                connection.connection.rollback();
+                connection.connection.setAutoCommit(true);
+            } finally {
+                connection.close();
+            }
+        }
+
+        @Override
+        public void rollback(Savepoint savepoint) throws Exception {
+            LeasedConnection connection = connectionManager.current();
+
+            if (connection == null || connection.connection.getAutoCommit()) {
+                throw new SQLHelperException("Can't rollback while no transaction is going.");
+            }
+
+            connection.connection.rollback(savepoint);
+        }
+
+        @Override
+        public boolean isAutoCommit() throws Exception {
+            LeasedConnection connection = connectionManager.current();
+
+            return connection == null || connection.connection.getAutoCommit();
+        }
+
+        @Override
+        public Savepoint createSavePoint() throws Exception {
+            LeasedConnection connection = connectionManager.current();
+
+            if (connection == null || connection.connection.getAutoCommit()) {
+                throw new SQLHelperException("Can't create save point while no transaction is going.");
+            }
+
+            return connection.connection.setSavepoint();
+        }
+    }
+
+    private static class KeyValueTableImplementation implements KeyValueTable {
+
+        ConnectionManagerImplementation connectionManager;
+        SchemaCatalog schemaCatalog;
+        String keyValueTableName = "sqlhelper_key_value_table";
+
+        // single statement put, resolved once from the table schema
+        volatile String upsertSQL = null;
+        volatile boolean upsertResolved = false;
+
+        // the table was created without a key by an older version, it is migrated once
+        volatile boolean migrationAttempted = false;
+
+        // null when the near cache is disabled
+        volatile NearCache nearCache = null;
+
+        // returned by readValue() when the key isn't in the table
+        private static final Object UNKNOWN_KEY = new Object();
+
+        // keys in one IN (...) list and rows in one JDBC batch, below the parameters limit of all supported
+        // databases and the 1000 expressions of an Oracle IN list
+        private static final int BULK_CHUNK_SIZE = 500;
+
+        // typed tables keep the values in a binary column with a type column, see TypedValueCodec
+        final boolean typed;
+        final String valueColumns;
+        final String valueAssignments;
+        final int valueParameters;
+        volatile int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+
+        public KeyValueTableImplementation(ConnectionManagerImplementation connectionManager, SchemaCatalog schemaCatalog) {
+            this(connectionManager, schemaCatalog, false);
+        }
+
+        public KeyValueTableImplementation(ConnectionManagerImplementation connectionManager, SchemaCatalog schemaCatalog, boolean typed) {
+            this.connectionManager = connectionManager;
+            this.schemaCatalog = schemaCatalog;
+            this.typed = typed;
+            if (typed) {
+                keyValueTableName = "sqlhelper_typed_key_value_table";
+                valueColumns = "sqlhelper_type,sqlhelper_value";
+                valueAssignments = "sqlhelper_type = ?,sqlhelper_value = ?";
+                valueParameters = 2;
+            } else {
+                valueColumns = "sqlhelper_value";
+                valueAssignments = "sqlhelper_value = ?";
+                valueParameters = 1;
+            }
+        }
+
+        // binds the value starting at index, returns the index after it
+        private int bindValue(PreparedStatement ps, Object value, int index) throws Exception {
+            if (typed) {
+                TypedValueCodec.bind(ps, index, value, compressionThreshold);
+            } else {
+                setValuesForPreparedStatment(ps, value, index);
+            }
+            return index + valueParameters;
+        }
+
+        // reads the value selected by valueColumns starting at column
+        private Object readColumns(ResultSet rs, int column) throws Exception {
+            if (typed) {
+                return TypedValueCodec.decode(rs.getInt(column), rs.getBytes(column + 1));
+            }
+            return rs.getObject(column);
+        }
+
+        // called when a statement failed, creates the table if it failed because the table doesn't exist yet.
+        private boolean createTableIfMissing(LeasedConnection connection, Throwable failure) throws Exception {
+            if (failure instanceof SQLHelperException) {
+                // thrown by SQLHelper itself (unknown key), the table is there
+                return false;
+            }
+
+            schemaCatalog.invalidate(keyValueTableName);
+            if (schemaCatalog.isTableExists(keyValueTableName)) {
+                return false;
+            }
+
+            String valueColumnsDefinition = typed ? "sqlhelper_type SMALLINT NOT NULL,sqlhelper_value " + binaryType() : "sqlhelper_value VARCHAR(1024)";
+            try (PreparedStatement ps = connection.prepareStatement("CREATE TABLE " + keyValueTableName + " (sqlhelper_key VARCHAR(" + keyLength() + ") NOT NULL PRIMARY KEY," + valueColumnsDefinition + ")")) {
+                ps.executeUpdate();
+            }
+            schemaCatalog.setTableExists(keyValueTableName, true);
+            upsertResolved = false;
+
+            return true;
+        }
+
+        // the single statement put, null if the database has none or sqlhelper_key isn't unique (tables created by
+        // older versions), then put() runs an UPDATE and an INSERT when no row was updated.
+        private String upsertSQL() throws Exception {
+            if (!upsertResolved) {
+                List<String> keys = Arrays.asList("sqlhelper_key");
+                TableSchema schema = schemaCatalog.getTable(keyValueTableName);
+                if (!typed && !schema.isUniqueKey(keys) && migrateLegacyTable()) {
+                    schema = schemaCatalog.getTable(keyValueTableName);
+                }
+                List<String> cols = typed ? Arrays.asList("sqlhelper_key", "sqlhelper_type", "sqlhelper_value") : Arrays.asList("sqlhelper_key", "sqlhelper_value");
+                upsertSQL = SQLHelper.upsertSQL(connectionManager.databaseType, schema, keyValueTableName, cols, keys);
+                // a migration skipped inside a transaction or before the table exists is tried again
+                upsertResolved = upsertSQL != null || typed || migrationAttempted;
+            }
+            return upsertSQL;
+        }
+
+        // the longest key that can be indexed: MySQL InnoDB index keys are up to 3072 bytes, 768 utf8mb4 characters,
+        // MS Access text is up to 255 characters
+        private int keyLength() {
+            if (connectionManager.databaseType == DatabaseType.MYSQL) {
+                return 768;
+            } else if (connectionManager.databaseType == DatabaseType.MSACCESS) {
+                return 255;
+            }
+            return 1024;
+        }
+
+        // a column for values of any size
+        private String binaryType() {
+            switch (connectionManager.databaseType) {
+                case MYSQL:
+                    return "LONGBLOB";
+                case MSACCESS:
+                    return "LONGBINARY";
+                default:
+                    return "BLOB";
+            }
+        }
+
+        // add a unique index on sqlhelper_key to a table created by an older version, in place: duplicate keys are
+        // removed first keeping one value for each key, the other rows stay readable. returns true if the table was migrated.
+        private boolean migrateLegacyTable() throws Exception {
+            if (migrationAttempted) {
+                return false;
+            }
+
+            // leased before taking the lock, a putAll() holding the side connection may be waiting for the lock
+            try (LeasedConnection connection = connectionManager.acquireForTransaction()) {
+                synchronized (this) {
+                    return migrateLegacyTable(connection);
+                }
+            }
+        }
+
+        private boolean migrateLegacyTable(LeasedConnection connection) throws Exception {
+            if (migrationAttempted) {
+                return false;
+            }
+            if (!schemaCatalog.isTableExists(keyValueTableName)) {
+                // it is created with a primary key on first use
+                return false;
+            }
+
+            if (!connection.connection.getAutoCommit()) {
+                // DDL would commit the caller's transaction on MySQL and Oracle and a rollback would undo it on SQLite,
+                // the first put() outside a transaction migrates the table
+                return false;
+            }
+            migrationAttempted = true;
+
+            if (connectionManager.databaseType == DatabaseType.MYSQL) {
+                try (PreparedStatement ps = connection.prepareStatement("SELECT COUNT(*) FROM " + keyValueTableName + " WHERE CHAR_LENGTH(sqlhelper_key) > " + keyLength());
+                        ResultSet rs = ps.executeQuery()) {
+                    if (rs.next() && rs.getInt(1) > 0) {
+                        // keys longer than keyLength() can't be indexed, put() keeps using UPDATE and INSERT
+                        return false;
+                    }
+                }
+            }
+
+            try {
+                removeDuplicateKeys(connection);
+                if (connectionManager.databaseType == DatabaseType.MYSQL) {
+                    executeMigrationStep(connection, "ALTER TABLE " + keyValueTableName + " MODIFY sqlhelper_key VARCHAR(" + keyLength() + ") NOT NULL");
+                }
+                executeMigrationStep(connection, "CREATE UNIQUE INDEX " + keyValueTableName + "_key ON " + keyValueTableName + " (sqlhelper_key)");
+            } catch (SQLException e) {
+                // the table stays readable and writable without the index, put() keeps using UPDATE and INSERT
+                return false;
+            }
+
+            schemaCatalog.invalidate(keyValueTableName);
+            return true;
+        }
+
+        // each duplicated key is replaced by one row with its greatest value in one transaction, so readers never miss the key
+        private void removeDuplicateKeys(LeasedConnection connection) throws SQLException {
+            List<String> duplicates = new ArrayList<>();
+            try (PreparedStatement ps = connection.prepareStatement("SELECT sqlhelper_key FROM " + keyValueTableName + " WHERE sqlhelper_key IS NOT NULL GROUP BY sqlhelper_key HAVING COUNT(*) > 1");
+                    ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    duplicates.add(rs.getString(1));
+                }
+            }
+
+            connection.connection.setAutoCommit(false);
+            boolean done = false;
+            try (PreparedStatement select = connection.prepareStatement("SELECT MAX(sqlhelper_value) FROM " + keyValueTableName + " WHERE sqlhelper_key = ?");
+                    PreparedStatement delete = connection.prepareStatement("DELETE FROM " + keyValueTableName + " WHERE sqlhelper_key = ?");
+                    PreparedStatement insert = connection.prepareStatement("INSERT INTO " + keyValueTableName + " (sqlhelper_key,sqlhelper_value) VALUES (?,?)")) {
+                for (String key : duplicates) {
+                    String value = null;
+                    select.setString(1, key);
+                    try (ResultSet rs = select.executeQuery()) {
+                        if (rs.next()) {
+                            value = rs.getString(1);
+                        }
+                    }
+                    delete.setString(1, key);
+                    delete.executeUpdate();
+                    insert.setString(1, key);
+                    insert.setString(2, value);
+                    insert.executeUpdate();
+                }
+                // rows without a key can't be read by get()
+                executeMigrationStep(connection, "DELETE FROM " + keyValueTableName + " WHERE sqlhelper_key IS NULL");
+                connection.connection.commit();
+                done = true;
+            } finally {
+                if (!done) {
+                    connection.connection.rollback();
+                }
+                connection.connection.setAutoCommit(true);
+            }
+        }
+
+        private void executeMigrationStep(LeasedConnection connection, String sql) throws SQLException {
+            try (PreparedStatement ps = connection.prepareStatement(sql)) {
+                ps.executeUpdate();
+            }
+        }
+
+        @Override
+        public String getKeyValueTableName() {
+            return keyValueTableName;
+        }
+
+        @Override
+        public void put(String key, Object value) throws Exception {
+            writeValue(key, value);
+
+            NearCache cache = nearCache;
+            if (cache != null) {
+                cacheWritten(cache, key, value);
+            }
+        }
+
+        private void cacheWritten(NearCache cache, String key, Object value) {
+            if (value == null || value instanceof String || (typed && TypedValueCodec.isImmutable(value))) {
+                cache.write(key, value, false);
+            } else {
+                // the driver may return another type for it, or the caller may change it, it is read again on the next get()
+                cache.invalidate(key);
+            }
+        }
+
+        private void writeValue(String key, Object value) throws Exception {
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                if (key == null) {
+                    throw new SQLHelperException("key is null.");
+                }
+
+                int NUM_ROWS_EFFECTED;
+
+                try {
+                    String upsert = upsertSQL();
+                    if (upsert != null) {
+                        try (CachedStatement cached = connection.statementCache.prepare(upsert)) {
+                            PreparedStatement ps = cached.statement;
+                            ps.setString(1, key);
+                            bindValue(ps, value, 2);
+                            try {
+                                ps.executeUpdate();
+                            } catch (SQLException e) {
+                                if (connectionManager.databaseType != DatabaseType.ORACLE || !isUniqueViolation(e)) {
+                                    throw e;
+                                }
+                                // another MERGE inserted the key after this one looked for it, now the row is found
+                                ps.executeUpdate();
+                            }
+                        }
+                        return;
+                    }
+
+                    try (CachedStatement cached = connection.statementCache.prepare("UPDATE " + keyValueTableName + " SET " + valueAssignments + " WHERE sqlhelper_key = ?")) {
+                        PreparedStatement ps = cached.statement;
+                        ps.setString(bindValue(ps, value, 1), key);
+                        NUM_ROWS_EFFECTED = ps.executeUpdate();
+                    }
+                    if (NUM_ROWS_EFFECTED == 0) {
+                        try (CachedStatement cached = connection.statementCache.prepare("INSERT INTO " + keyValueTableName + " (sqlhelper_key," + valueColumns + ") VALUES (?," + Q_Marks(valueParameters) + ") ")) {
+                            PreparedStatement ps = cached.statement;
+                            ps.setString(1, key);
+                            bindValue(ps, value, 2);
+                            ps.executeUpdate();
+                        }
+                    }
+                } catch (SQLException e) {
+                    if (createTableIfMissing(connection, e)) {
+                        writeValue(key, value);
+
+                    } else {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public Object get(String key) throws Exception {
+            NearCache cache = nearCache;
+            if (cache == null) {
+                Object value = readValue(key);
+                if (value == UNKNOWN_KEY) {
+                    throw new SQLHelperException("Unknown key '" + key + "'.");
+                }
+                return value;
+            }
+
+            NearCacheEntry entry = cache.get(key);
+            if (entry == null) {
+                long version = cache.version(key);
+                Object value = readValue(key);
+                if (value != UNKNOWN_KEY && !TypedValueCodec.isImmutable(value)) {
+                    // each caller gets its own byte[] or object
+                    return value;
+                }
+                entry = cache.load(key, value == UNKNOWN_KEY ? null : value, value == UNKNOWN_KEY, version);
+            }
+            if (entry.absent) {
+                throw new SQLHelperException("Unknown key '" + key + "'.");
+            }
+            return entry.value;
+        }
+
+        // the value of the key from the table, UNKNOWN_KEY if there is no such key
+        private Object readValue(String key) throws Exception {
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                try (CachedStatement cached = connection.statementCache.prepare("SELECT " + valueColumns + " FROM " + keyValueTableName + " WHERE sqlhelper_key = ?")) {
+                    PreparedStatement ps = cached.statement;
+                    ps.setString(1, key);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
+                            Object obj = readColumns(rs, 1);
+                            return obj;
+                        } else {
+                            return UNKNOWN_KEY;
+                        }
+                    }
+                } catch (Throwable e) {
+                    if (createTableIfMissing(connection, e)) {
+                        return UNKNOWN_KEY;
+                    } else {
+                        throw e;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public <T> T get(String key, Class<T> resultType) throws Exception {
+            if (typed) {
+                // decoded to the type it was put with
+                try {
+                    return TypedValueCodec.convert(get(key), resultType);
+                } catch (SQLHelperException e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new SQLHelperException("Error happened while getting value for key '" + key + "': " + e);
+                }
+            }
+
+            if (nearCache != null) {
+                // the cache keeps the value as the driver returned it, it is converted on each call
+                Object value = get(key);
+                if (value == null || resultType.isInstance(value)) {
+                    return resultType.cast(value);
+                }
+                try {
+                    return castValue(value, resultType);
+                } catch (Throwable e) {
+                    throw new SQLHelperException("Error happened while getting value for key '" + key + "': " + e);
+                }
+            }
+
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                T obj = null;
+                try (CachedStatement cached = connection.statementCache.prepare("SELECT sqlhelper_value FROM " + keyValueTableName + " WHERE sqlhelper_key = ?")) {
+                    PreparedStatement ps = cached.statement;
+                    ps.setString(1, key);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
+                            try {
+                                obj = rs.getObject("sqlhelper_value", resultType);
+                                if (!obj.getClass().equals(resultType)) {
+                                    obj = castValue(obj, resultType);
+                                }
+                            } catch (Throwable e) {
+                                try {
+                                    obj = castValue(rs.getObject("sqlhelper_value"), resultType);
+
+                                } catch (Throwable e1) {
+                                    throw new SQLHelperException("Error happened while getting value for key '" + key + "': " + e1);
+                                }
+                            }
+                        } else {
+                            throw new SQLHelperException("Unknown key '" + key + "'.");
+                        }
+                    }
+                } catch (Throwable t) {
+                    if (createTableIfMissing(connection, t)) {
+                        throw new SQLHelperException("Unknown key '" + key + "'.");
+                    } else {
+                        throw t;
+                    }
+                }
+                return obj;
+            }
+        }
+
+        @Override
+        public boolean containsKey(String key) throws Exception {
+            NearCache cache = nearCache;
+            if (cache == null) {
+                return readContainsKey(key);
+            }
+
+            NearCacheEntry entry = cache.get(key);
+            if (entry != null) {
+                return !entry.absent;
+            }
+            long version = cache.version(key);
+            boolean contains = readContainsKey(key);
+            if (!contains) {
+                cache.load(key, null, true, version);
+            }
+            return contains;
+        }
+
+        private boolean readContainsKey(String key) throws Exception {
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                try (CachedStatement cached = connection.statementCache.prepare("SELECT COUNT(sqlhelper_key) FROM " + keyValueTableName + " WHERE sqlhelper_key = ?")) {
+                    PreparedStatement ps = cached.statement;
+                    ps.setString(1, key);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            return rs.getInt(1) > 0;
+                        }
+                    }
+                } catch (Throwable t) {
+                    if (createTableIfMissing(connection, t)) {
+                        return false;
+                    } else {
+                        throw t;
+                    }
+                }
+                return false;
+            }
+        }
+
+        @Override
+        public String containsValue(Object value) throws Exception {
+            if (typed) {
+                return containsTypedValue(value);
+            }
+
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                String res = null;
+
+                try (CachedStatement cached = connection.statementCache.prepare("SELECT sqlhelper_key FROM " + keyValueTableName + " WHERE sqlhelper_value = ?")) {
+                    PreparedStatement ps = cached.statement;
+                    setValuesForPreparedStatment(ps, value, 1);
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            res = rs.getString(1);
+                        }
+                    } catch (Throwable e) {
+                        ps.setString(1, String.valueOf(value));
+                        try (ResultSet rs = ps.executeQuery()) {
+                            while (rs.next()) {
+                                res = rs.getString(1);
+                            }
+                        } catch (Throwable e1) {
+                            try (ResultSet rs = ps.executeQuery()) {
+                                while (rs.next()) {
+                                    res = rs.getString(1);
+                                }
+                            }
+                        }
+                    }
+                } catch (Throwable t) {
+                    if (createTableIfMissing(connection, t)) {
+                        return null;
+                    } else {
+                        throw t;
+                    }
+                }
+                return res;
+            }
+        }
+
+        // the encoded values are compared, so only values put with the same type match
+        private String containsTypedValue(Object value) throws Exception {
+            String valueMatch;
+            if (value == null) {
+                valueMatch = "sqlhelper_type = ?";
+            } else if (connectionManager.databaseType == DatabaseType.ORACLE) {
+                // Oracle can't compare BLOBs with =
+                valueMatch = "sqlhelper_type = ? AND DBMS_LOB.COMPARE(sqlhelper_value, ?) = 0";
+            } else {
+                valueMatch = "sqlhelper_type = ? AND sqlhelper_value = ?";
+            }
+
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                String res = null;
+                try (CachedStatement cached = connection.statementCache.prepare("SELECT sqlhelper_key FROM " + keyValueTableName + " WHERE " + valueMatch)) {
+                    PreparedStatement ps = cached.statement;
+                    if (value == null) {
+                        ps.setInt(1, TypedValueCodec.NULL);
+                    } else {
+                        bindValue(ps, value, 1);
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            res = rs.getString(1);
+                        }
+                    }
+                } catch (Throwable t) {
+                    if (!createTableIfMissing(connection, t)) {
+                        throw t;
+                    }
+                }
+                return res;
+            }
+        }
+
+        @Override
+        public Object remove(String key) throws Exception {
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                // the table is read, not the near cache, it may not know a key added by another program
+                Object value = readValue(key);
+                int removed;
+                try (CachedStatement cached = connection.statementCache.prepare("DELETE FROM " + keyValueTableName + " WHERE sqlhelper_key = ?")) {
+                    PreparedStatement ps = cached.statement;
+                    ps.setString(1, key);
+                    removed = ps.executeUpdate();
+                }
+
+                NearCache cache = nearCache;
+                if (cache != null) {
+                    cache.write(key, null, true);
+                }
+                return removed > 0 && value != UNKNOWN_KEY ? value : null;
+            }
+        }
+
+        @Override
+        public void clear() throws Exception {
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                try (CachedStatement cached = connection.statementCache.prepare("DELETE FROM " + keyValueTableName)) {
+                    PreparedStatement ps = cached.statement;
+                    ps.executeUpdate();
+                } catch (Throwable t) {
+                    if (!createTableIfMissing(connection, t)) {
+                        throw t;
+                    }
+                }
+            }
+
+            NearCache cache = nearCache;
+            if (cache != null) {
+                cache.clear();
+            }
+        }
+
+        @Override
+        public int size() throws Exception {
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                try (CachedStatement cached = connection.statementCache.prepare("SELECT COUNT(sqlhelper_key) FROM " + keyValueTableName)) {
+                    PreparedStatement ps = cached.statement;
+                    try (ResultSet rs = ps.executeQuery()) {
+                        if (rs.next()) {
+                            return rs.getInt(1);
+                        }
+                    }
+                } catch (Throwable t) {
+                    if (!createTableIfMissing(connection, t)) {
+                        throw t;
+                    }
+                }
+
+                return 0;
+            }
+        }
+
+        @Override
+        public Object replace(String key, Object newValue) throws Exception {
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                // the table is read, not the near cache, it may not know a key added by another program
+                Object value = readValue(key);
+                int replaced;
+                try (CachedStatement cached = connection.statementCache.prepare("UPDATE " + keyValueTableName + " SET " + valueAssignments + " WHERE sqlhelper_key = ?")) {
+                    PreparedStatement ps = cached.statement;
+                    ps.setString(bindValue(ps, newValue, 1), key);
+                    replaced = ps.executeUpdate();
+                }
+
+                NearCache cache = nearCache;
+                if (cache != null) {
+                    if (replaced > 0) {
+                        cacheWritten(cache, key, newValue);
+                    } else {
+                        cache.write(key, null, true);
+                    }
+                }
+                return replaced > 0 && value != UNKNOWN_KEY ? value : null;
+            }
+        }
+
+        @Override
+        public Map<String, Object> getMap() throws Exception {
+            try (LeasedConnection connection = connectionManager.acquire()) {
+                Map<String, Object> keyValueMap = new HashMap();
+                try (CachedStatement cached = connection.statementCache.prepare("SELECT sqlhelper_key," + valueColumns + " FROM " + keyValueTableName)) {
+                    PreparedStatement ps = cached.statement;
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            Object obj = readColumns(rs, 2);
+                            keyValueMap.put(rs.getString(1), obj);
+                        }
+                    }
+                } catch (Throwable t) {
+                    if (!createTableIfMissing(connection, t)) {
+                        throw t;
+                    }
+                }
+                return keyValueMap;
+            }
+        }
+
+        @Override
+        public void putMap(Map<String, Object> map) throws Exception {
+            putAll(map);
+        }
+
+        @Override
+        public Map<String, Object> getAll(Collection<String> keys) throws Exception {
+            List<String> distinctKeys = distinctKeys(keys);
+            Map<String, Object> values = new HashMap<>();
+
+            NearCache cache = nearCache;
+            List<String> missing = new ArrayList<>();
+            for (String key : distinctKeys) {
+                NearCacheEntry entry = cache == null ? null : cache.get(key);
+                if (entry == null) {
+                    missing.add(key);
+                } else if (!entry.absent) {
+                    values.put(key, entry.value);
+                }
+            }
+
+            if (!missing.isEmpty()) {
+                long[] versions = new long[missing.size()];
+                for (int i = 0; cache != null && i < versions.length; i++) {
+                    versions[i] = cache.version(missing.get(i));
+                }
+                try (LeasedConnection connection = connectionManager.acquire()) {
+                    try {
+                        readValues(connection, missing, values);
+                    } catch (Throwable t) {
+                        if (!createTableIfMissing(connection, t)) {
+                            throw t;
+                        }
+                    }
+                }
+
+                if (cache != null) {
+                    for (int i = 0; i < versions.length; i++) {
+                        String key = missing.get(i);
+                        Object value = values.get(key);
+                        if (TypedValueCodec.isImmutable(value)) {
+                            cache.load(key, value, !values.containsKey(key), versions[i]);
+                        }
+                    }
+                }
+            }
+
+            return inKeysOrder(distinctKeys, values);
+        }
+
+        @Override
+        public void putAll(Map<String, Object> map) throws Exception {
+            List<String> keys = distinctKeys(map.keySet());
+            if (keys.isEmpty()) {
+                return;
+            }
+
+            try (LeasedConnection connection = connectionManager.acquireForTransaction()) {
+                try {
+                    writeValues(connection, keys, map);
+                } catch (SQLException e) {
+                    if (createTableIfMissing(connection, e)) {
+                        writeValues(connection, keys, map);
+                    } else {
+                        throw e;
+                    }
+                }
+            }
+
+            NearCache cache = nearCache;
+            if (cache != null) {
+                for (String key : keys) {
+                    cacheWritten(cache, key, map.get(key));
+                }
+            }
+        }
+
+        @Override
+        public Map<String, Object> removeAll(Collection<String> keys) throws Exception {
+            List<String> distinctKeys = distinctKeys(keys);
+            Map<String, Object> values = new HashMap<>();
+            if (distinctKeys.isEmpty()) {
+                return values;
+            }
+
+            try (LeasedConnection connection = connectionManager.acquireForTransaction()) {
+                try {
+                    // before the transaction, it may migrate an old table
+                    upsertSQL();
+
+                    boolean ownTransaction = beginBulk(connection);
+                    boolean done = false;
+                    try {
+                        readValues(connection, distinctKeys, values);
+
+                        List<String> found = new ArrayList<>(values.keySet());
+                        for (int from = 0; from < found.size(); from += BULK_CHUNK_SIZE) {
+                            List<String> chunk = found.subList(from, Math.min(found.size(), from + BULK_CHUNK_SIZE));
+                            try (CachedStatement cached = connection.statementCache.prepare("DELETE FROM " + keyValueTableName + " WHERE sqlhelper_key IN (" + Q_Marks(chunk.size()) + ")")) {
+                                PreparedStatement ps = cached.statement;
+                                for (int i = 0; i < chunk.size(); i++) {
+                                    ps.setString(i + 1, chunk.get(i));
+                                }
+                                ps.executeUpdate();
+                            }
+                        }
+                        done = true;
+                    } finally {
+                        endBulk(connection, ownTransaction, done);
+                    }
+                } catch (Throwable t) {
+                    if (!createTableIfMissing(connection, t)) {
+                        throw t;
+                    }
+                }
+            }
+
+            NearCache cache = nearCache;
+            if (cache != null) {
+                for (String key : distinctKeys) {
+                    cache.write(key, null, true);
+                }
+            }
+
+            return inKeysOrder(distinctKeys, values);
+        }
+
+        private List<String> distinctKeys(Collection<String> keys) throws SQLHelperException {
+            List<String> distinctKeys = new ArrayList<>(keys.size());
+            Set<String> seen = new HashSet<>();
+            for (String key : keys) {
+                if (key == null) {
+                    throw new SQLHelperException("key is null.");
+                }
+                if (seen.add(key)) {
+                    distinctKeys.add(key);
+                }
+            }
+            return distinctKeys;
+        }
+
+        private Map<String, Object> inKeysOrder(List<String> keys, Map<String, Object> values) {
+            Map<String, Object> ordered = new LinkedHashMap<>();
+            for (String key : keys) {
+                if (values.containsKey(key)) {
+                    ordered.put(key, values.get(key));
+                }
+            }
+            return ordered;
+        }
+
+        // reads the values of the keys that are in the table, one SELECT for each BULK_CHUNK_SIZE keys
+        private void readValues(LeasedConnection connection, List<String> keys, Map<String, Object> values) throws Exception {
+            for (int from = 0; from < keys.size(); from += BULK_CHUNK_SIZE) {
+                List<String> chunk = keys.subList(from, Math.min(keys.size(), from + BULK_CHUNK_SIZE));
+                try (CachedStatement cached = connection.statementCache.prepare("SELECT sqlhelper_key," + valueColumns + " FROM " + keyValueTableName + " WHERE sqlhelper_key IN (" + Q_Marks(chunk.size()) + ")")) {
+                    PreparedStatement ps = cached.statement;
+                    for (int i = 0; i < chunk.size(); i++) {
+                        ps.setString(i + 1, chunk.get(i));
+                    }
+                    try (ResultSet rs = ps.executeQuery()) {
+                        while (rs.next()) {
+                            values.put(rs.getString(1), readColumns(rs, 2));
+                        }
+                    }
+                }
+            }
+        }
+
+        private void writeValues(LeasedConnection connection, List<String> keys, Map<String, Object> map) throws Exception {
+            // before the transaction, it may migrate an old table
+            String upsert = upsertSQL();
+
+            boolean ownTransaction = beginBulk(connection);
+            boolean done = false;
+            try {
+                if (upsert != null) {
+                    executeBatch(connection, upsert, keys, map, true);
+                } else {
+                    // without a single statement put the existing keys are updated and the others inserted
+                    Map<String, Object> existing = new HashMap<>();
+                    readValues(connection, keys, existing);
+
+                    List<String> updates = new ArrayList<>();
+                    List<String> inserts = new ArrayList<>();
+                    for (String key : keys) {
+                        (existing.containsKey(key) ? updates : inserts).add(key);
+                    }
+                    executeBatch(connection, "UPDATE " + keyValueTableName + " SET " + valueAssignments + " WHERE sqlhelper_key = ?", updates, map, false);
+                    executeBatch(connection, "INSERT INTO " + keyValueTableName + " (sqlhelper_key," + valueColumns + ") VALUES (?," + Q_Marks(valueParameters) + ") ", inserts, map, true);
+                }
+                done = true;
+            } finally {
+                endBulk(connection, ownTransaction, done);
+            }
+        }
+
+        // sends the rows in batches of BULK_CHUNK_SIZE, the key is the first parameter of INSERT and upsert and the last of UPDATE
+        private void executeBatch(LeasedConnection connection, String sql, List<String> keys, Map<String, Object> map, boolean keyFirst) throws Exception {
+            if (keys.isEmpty()) {
+                return;
+            }
+
+            try (CachedStatement cached = connection.statementCache.prepare(sql)) {
+                PreparedStatement ps = cached.statement;
+                try {
+                    int rows = 0;
+                    for (String key : keys) {
+                        if (keyFirst) {
+                            ps.setString(1, key);
+                            bindValue(ps, map.get(key), 2);
+                        } else {
+                            ps.setString(bindValue(ps, map.get(key), 1), key);
+                        }
+                        ps.addBatch();
+                        if (++rows % BULK_CHUNK_SIZE == 0) {
+                            ps.executeBatch();
+                        }
+                    }
+                    if (rows % BULK_CHUNK_SIZE != 0) {
+                        ps.executeBatch();
+                    }
+                } catch (Throwable t) {
+                    // the statement goes back to the cache, it must not keep the failed rows
+                    ps.clearBatch();
+                    throw t;
+                }
+            }
+        }
+
+        // the bulk statements run in one transaction, or in the caller's transaction if one is going. the connection
+        // comes from acquireForTransaction(), so it isn't the shared connection used by other threads.
+        private boolean beginBulk(LeasedConnection connection) throws SQLException {
+            if (!connection.connection.getAutoCommit()) {
+                return false;
+            }
+            connection.connection.setAutoCommit(false);
+            return true;
+        }
+
+        private void endBulk(LeasedConnection connection, boolean ownTransaction, boolean done) throws SQLException {
+            if (!ownTransaction) {
+                return;
+            }
+            try {
+                if (done) {
+                    connection.connection.commit();
+                } else {
+                    connection.connection.rollback();
+                }
+            } finally {
+                connection.connection.setAutoCommit(true);
+            }
+        }
+
+        @Override
+        public void setNearCache(int maxEntries, long timeToLive, TimeUnit unit) {
+            if (maxEntries < 0 || timeToLive < 0) {
+                throw new IllegalArgumentException("maxEntries and timeToLive can't be negative");
+            }
+            nearCache = maxEntries == 0 ? null : new NearCache(maxEntries, unit.toNanos(timeToLive));
+        }
+
+        @Override
+        public void setCompressionThreshold(int bytes) {
+            if (!typed) {
+                throw new UnsupportedOperationException("Only the typed key value table compresses values, use SQLHelper.getTypedKeyValueTable()");
+            }
+            if (bytes < 0) {
+                throw new IllegalArgumentException("bytes can't be negative");
+            }
+            compressionThreshold = bytes;
+        }
+
+        @Override
+        public long getNearCacheHits() {
+            NearCache cache = nearCache;
+            return cache == null ? 0 : cache.hits.sum();
+        }
+
+        @Override
+        public long getNearCacheMisses() {
+            NearCache cache = nearCache;
+            return cache == null ? 0 : cache.misses.sum();
+        }
+
+        @Override
+        public double getNearCacheHitRatio() {
+            long hits = getNearCacheHits();
+            long total = hits + getNearCacheMisses();
+            return total == 0 ? 0 : (double) hits / total;
+        }
+    }
+
+    // the values of a typed key value table: a type tag column and the value bytes, numbers are big-endian, strings
+    // UTF-8, BigDecimal the scale followed by the unscaled value, other serializable values use java serialization.
+    private static class TypedValueCodec {
+
+        static final int NULL = 0;
+        static final int BOOLEAN = 1;
+        static final int BYTE = 2;
+        static final int SHORT = 3;
+        static final int INTEGER = 4;
+        static final int LONG = 5;
+        static final int FLOAT = 6;
+        static final int DOUBLE = 7;
+        static final int CHARACTER = 8;
+        static final int STRING = 9;
+        static final int BYTES = 10;
+        static final int BIG_DECIMAL = 11;
+        static final int BIG_INTEGER = 12;
+        static final int SERIALIZED = 13;
+
+        // added to the tag when the bytes are deflated
+        static final int COMPRESSED = 64;
+
+        // limits of a decoded value, so a crafted value can't use all the memory or CPU when it is read
+        static final int MAX_DECODED_BYTES = 16 * 1024 * 1024;
+        static final int MAX_DEPTH = 32;
+        static final int MAX_REFERENCES = 100000;
+        static final int MAX_ARRAY_LENGTH = 1000000;
+
+        // the JDK value and collection classes that are deserialized without registering them, with the java.time
+        // values and the List.of()/Set.of()/Map.of() collections, written by their serial proxies java.time.Ser and
+        // java.util.CollSer
+        static final Set<String> JDK_SERIALIZABLE_TYPES = new HashSet<>(Arrays.asList(
+                "java.lang.Object", "java.lang.Number", "java.lang.Enum", "java.lang.String", "java.lang.Boolean",
+                "java.lang.Byte", "java.lang.Short", "java.lang.Integer", "java.lang.Long", "java.lang.Float",
+                "java.lang.Double", "java.lang.Character", "java.math.BigDecimal", "java.math.BigInteger",
+                "java.util.ArrayList", "java.util.LinkedList", "java.util.ArrayDeque", "java.util.HashMap",
+                "java.util.LinkedHashMap", "java.util.TreeMap", "java.util.HashSet", "java.util.LinkedHashSet",
+                "java.util.TreeSet", "java.util.Map$Entry", "java.util.Date", "java.util.UUID", "java.util.CollSer",
+                "java.util.Arrays$ArrayList", "java.util.Collections$EmptyList", "java.util.Collections$EmptySet",
+                "java.util.Collections$EmptyMap", "java.util.Collections$SingletonList", "java.util.Collections$SingletonSet",
+                "java.util.Collections$SingletonMap", "java.util.Collections$UnmodifiableCollection",
+                "java.util.Collections$UnmodifiableList", "java.util.Collections$UnmodifiableRandomAccessList",
+                "java.util.Collections$UnmodifiableSet", "java.util.Collections$UnmodifiableMap", "java.sql.Date",
+                "java.sql.Time", "java.sql.Timestamp"));
+
+        // only the listed JDK classes and the registered classes are deserialized
+        static final ObjectInputFilter SERIAL_FILTER = new ObjectInputFilter() {
+            @Override
+            public Status checkInput(FilterInfo info) {
+                if (info.depth() > MAX_DEPTH || info.references() > MAX_REFERENCES || info.streamBytes() > MAX_DECODED_BYTES
+                        || info.arrayLength() > MAX_ARRAY_LENGTH) {
+                    return Status.REJECTED;
+                }
+                Class<?> type = info.serialClass();
+                if (type == null) {
+                    return Status.UNDECIDED;
+                }
+                while (type.isArray()) {
+                    type = type.getComponentType();
+                }
+                return type.isPrimitive() || isSerializable(type) ? Status.ALLOWED : Status.REJECTED;
+            }
+        };
+
+        static boolean isSerializable(Class<?> type) {
+            String name = type.getName();
+            if (JDK_SERIALIZABLE_TYPES.contains(name) || (name.startsWith("java.time.") && type.getClassLoader() == null)
+                    || name.startsWith("java.util.ImmutableCollections$")) {
+                return true;
+            }
+            for (Class<?> registered : serializableTypes) {
+                if (registered.isAssignableFrom(type)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // byte[] and deserialized objects can be changed by the caller, they aren't kept by the near cache
+        static boolean isImmutable(Object value) {
+            int tag = tag(value);
+            return tag != BYTES && tag != SERIALIZED;
+        }
+
+        static int tag(Object value) {
+            if (value == null) {
+                return NULL;
+            } else if (value instanceof String) {
+                return STRING;
+            } else if (value instanceof Integer) {
+                return INTEGER;
+            } else if (value instanceof Long) {
+                return LONG;
+            } else if (value instanceof Double) {
+                return DOUBLE;
+            } else if (value instanceof Boolean) {
+                return BOOLEAN;
+            } else if (value instanceof byte[]) {
+                return BYTES;
+            } else if (value instanceof Float) {
+                return FLOAT;
+            } else if (value instanceof Short) {
+                return SHORT;
+            } else if (value instanceof Byte) {
+                return BYTE;
+            } else if (value instanceof Character) {
+                return CHARACTER;
+            } else if (value.getClass() == BigDecimal.class) {
+                return BIG_DECIMAL;
+            } else if (value.getClass() == BigInteger.class) {
+                return BIG_INTEGER;
+            }
+            return SERIALIZED;
+        }
+
+        static void bind(PreparedStatement ps, int index, Object value, int compressionThreshold) throws Exception {
+            int tag = tag(value);
+            if (tag == NULL) {
+                ps.setInt(index, NULL);
+                ps.setBytes(index + 1, null);
+                return;
+            }
+
+            byte[] bytes = encode(value, tag);
+            if (compressionThreshold > 0 && bytes.length > compressionThreshold) {
+                byte[] compressed = deflate(bytes);
+                if (compressed.length < bytes.length) {
+                    bytes = compressed;
+                    tag += COMPRESSED;
+                }
+            }
+            ps.setInt(index, tag);
+            ps.setBytes(index + 1, bytes);
+        }
+
+        static byte[] encode(Object value, int tag) throws Exception {
+            switch (tag) {
+                case BOOLEAN:
+                    return new byte[]{(byte) ((Boolean) value ? 1 : 0)};
+                case BYTE:
+                    return new byte[]{(Byte) value};
+                case SHORT:
+                    return ByteBuffer.allocate(2).putShort((Short) value).array();
+                case INTEGER:
+                    return ByteBuffer.allocate(4).putInt((Integer) value).array();
+                case LONG:
+                    return ByteBuffer.allocate(8).putLong((Long) value).array();
+                case FLOAT:
+                    return ByteBuffer.allocate(4).putFloat((Float) value).array();
+                case DOUBLE:
+                    return ByteBuffer.allocate(8).putDouble((Double) value).array();
+                case CHARACTER:
+                    return ByteBuffer.allocate(2).putChar((Character) value).array();
+                case STRING:
+                    return ((String) value).getBytes(StandardCharsets.UTF_8);
+                case BYTES:
+                    return (byte[]) value;
+                case BIG_DECIMAL:
+                    BigDecimal decimal = (BigDecimal) value;
+                    byte[] unscaled = decimal.unscaledValue().toByteArray();
+                    return ByteBuffer.allocate(4 + unscaled.length).putInt(decimal.scale()).put(unscaled).array();
+                case BIG_INTEGER:
+                    return ((BigInteger) value).toByteArray();
+                default:
+                    if (!(value instanceof Serializable)) {
+                        throw new SQLHelperException("Can't store value of type " + value.getClass().getName() + " in typed key value table, it must be serializable and registered with SQLHelper.registerSerializableType().");
+                    }
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    // every class written, after writeReplace(), must be one that SERIAL_FILTER reads back
+                    final String[] rejected = {null};
+                    try (ObjectOutputStream objectOut = new ObjectOutputStream(out) {
+                        @Override
+                        protected void annotateClass(Class<?> type) throws IOException {
+                            Class<?> component = type;
+                            while (component.isArray()) {
+                                component = component.getComponentType();
+                            }
+                            if (!component.isPrimitive() && !isSerializable(component)) {
+                                if (rejected[0] == null) {
+                                    rejected[0] = type.getName();
+                                }
+                                throw new InvalidClassException(type.getName(), "not registered");
+                            }
+                        }
+                    }) {
+                        objectOut.writeObject(value);
+                    } catch (InvalidClassException e) {
+                        if (rejected[0] == null) {
+                            throw e;
+                        }
+                        throw new SQLHelperException("Can't store value of type " + value.getClass().getName() + " in typed key value table, " + rejected[0] + " must be registered with SQLHelper.registerSerializableType().");
+                    }
+                    return out.toByteArray();
+            }
+        }
+
+        static Object decode(int tag, byte[] bytes) throws Exception {
+            if (tag == NULL) {
+                return null;
+            }
+            if (tag >= COMPRESSED) {
+                bytes = inflate(bytes);
+                tag -= COMPRESSED;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            switch (tag) {
+                case BOOLEAN:
+                    return bytes[0] != 0;
+                case BYTE:
+                    return bytes[0];
+                case SHORT:
+                    return buffer.getShort();
+                case INTEGER:
+                    return buffer.getInt();
+                case LONG:
+                    return buffer.getLong();
+                case FLOAT:
+                    return buffer.getFloat();
+                case DOUBLE:
+                    return buffer.getDouble();
+                case CHARACTER:
+                    return buffer.getChar();
+                case STRING:
+                    return new String(bytes, StandardCharsets.UTF_8);
+                case BYTES:
+                    return bytes;
+                case BIG_DECIMAL:
+                    int scale = buffer.getInt();
+                    return new BigDecimal(new BigInteger(Arrays.copyOfRange(bytes, 4, bytes.length)), scale);
+                case BIG_INTEGER:
+                    return new BigInteger(bytes);
+                case SERIALIZED:
+                    try (ObjectInputStream objectIn = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+                        objectIn.setObjectInputFilter(SERIAL_FILTER);
+                        return objectIn.readObject();
+                    }
+                default:
+                    throw new SQLHelperException("Unknown value type (" + tag + ") in typed key value table.");
+            }
+        }
+
+        // numbers are converted with the Number methods, other types as castValue() does
+        @SuppressWarnings("unchecked")
+        static <T> T convert(Object value, Class<T> type) throws Exception {
+            if (value == null) {
+                return castValue(null, type);
+            }
+            Class<?> boxed = MethodType.methodType(type).wrap().returnType();
+            if (boxed.isInstance(value)) {
+                return (T) value;
+            }
+            if (!(value instanceof Number)) {
+                return castValue(value, type);
+            }
+
+            Number number = (Number) value;
+            boolean integral = !(number instanceof Double || number instanceof Float || number instanceof BigDecimal);
+            if (boxed == Integer.class) {
+                return (T) (Integer) number.intValue();
+            } else if (boxed == Long.class) {
+                return (T) (Long) number.longValue();
+            } else if (boxed == Double.class) {
+                return (T) (Double) number.doubleValue();
+            } else if (boxed == Float.class) {
+                return (T) (Float) number.floatValue();
+            } else if (boxed == Short.class) {
+                return (T) (Short) number.shortValue();
+            } else if (boxed == Byte.class) {
+                return (T) (Byte) number.byteValue();
+            } else if (boxed == BigDecimal.class) {
+                return (T) (number instanceof BigInteger ? new BigDecimal((BigInteger) number) : integral ? BigDecimal.valueOf(number.longValue()) : new BigDecimal(number.toString()));
+            } else if (boxed == BigInteger.class) {
+                return (T) (number instanceof BigDecimal ? ((BigDecimal) number).toBigInteger() : integral ? BigInteger.valueOf(number.longValue()) : BigDecimal.valueOf(number.doubleValue()).toBigInteger());
+            } else if (boxed == String.class) {
+                return (T) number.toString();
+            }
+            return castValue(value, type);
+        }
+
+        static byte[] deflate(byte[] bytes) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                deflater.setInput(bytes);
+                deflater.finish();
+                ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+                byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+                return out.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        static byte[] inflate(byte[] bytes) throws DataFormatException {
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(bytes);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(Math.min(bytes.length * 3, MAX_DECODED_BYTES));
+                byte[] buffer = new byte[8192];
+                while (!inflater.finished()) {
+                    int count = inflater.inflate(buffer);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new DataFormatException("compressed value is truncated");
+                    }
+                    if (out.size() + count > MAX_DECODED_BYTES) {
+                        throw new DataFormatException("compressed value is bigger than " + MAX_DECODED_BYTES + " bytes");
+                    }
+                    out.write(buffer, 0, count);
+                }
+                return out.toByteArray();
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    private static class NearCacheEntry {
+
+        final Object value;
+        // the key isn't in the table
+        final boolean absent;
+        // System.nanoTime() after which the entry is dropped, 0 if never
+        final long expiresAt;
+
+        NearCacheEntry(Object value, boolean absent, long expiresAt) {
+            this.value = value;
+            this.absent = absent;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // least recently used entries of a KeyValueTable, each entry expires after timeToLive nanoseconds. the keys are
+    // spread over segments with their own lock so threads reading different keys don't wait for each other.
+    private static class NearCache {
+
+        static final int MAX_SEGMENTS = 16;
+
+        final long timeToLive;
+        final NearCacheSegment[] segments;
+        final LongAdder hits = new LongAdder();
+        final LongAdder misses = new LongAdder();
+
+        NearCache(int maxEntries, long timeToLive) {
+            this.timeToLive = timeToLive;
+            int count = Math.min(MAX_SEGMENTS, maxEntries);
+            segments = new NearCacheSegment[count];
+            for (int i = 0; i < count; i++) {
+                // the sizes add up to maxEntries
+                segments[i] = new NearCacheSegment(maxEntries / count + (i < maxEntries % count ? 1 : 0));
+            }
+        }
+
+        private NearCacheSegment segment(String key) {
+            int hash = key.hashCode();
+            return segments[((hash ^ (hash >>> 16)) & 0x7fffffff) % segments.length];
+        }
+
+        NearCacheEntry get(String key) {
+            NearCacheEntry entry = segment(key).get(key);
+            if (entry == null) {
+                misses.increment();
+            } else {
+                hits.increment();
+            }
+            return entry;
+        }
+
+        // counts the writes of the key's segment, a value read from the table is only kept if no write happened during the read
+        long version(String key) {
+            return segment(key).version();
+        }
+
+        // keeps a value read from the table, unless it was written after version() was taken
+        NearCacheEntry load(String key, Object value, boolean absent, long readVersion) {
+            NearCacheEntry entry = newEntry(value, absent);
+            segment(key).load(key, entry, readVersion);
+            return entry;
+        }
+
+        void write(String key, Object value, boolean absent) {
+            segment(key).write(key, newEntry(value, absent));
+        }
+
+        void invalidate(String key) {
+            segment(key).invalidate(key);
+        }
+
+        void clear() {
+            for (NearCacheSegment segment : segments) {
+                segment.clear();
+            }
+        }
+
+        private NearCacheEntry newEntry(Object value, boolean absent) {
+            long expiresAt = 0;
+            if (timeToLive > 0) {
+                expiresAt = System.nanoTime() + timeToLive;
+                if (expiresAt == 0) {
+                    expiresAt = 1;
+                }
+            }
+            return new NearCacheEntry(value, absent, expiresAt);
+        }
+    }
+
+    private static class NearCacheSegment {
+
+        final LinkedHashMap<String, NearCacheEntry> entries;
+        long version = 0;
+
+        NearCacheSegment(final int maxEntries) {
+            this.entries = new LinkedHashMap<String, NearCacheEntry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, NearCacheEntry> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+        }
+
+        synchronized NearCacheEntry get(String key) {
+            NearCacheEntry entry = entries.get(key);
+            if (entry != null && entry.expiresAt != 0 && System.nanoTime() - entry.expiresAt > 0) {
+                entries.remove(key);
+                return null;
+            }
+            return entry;
+        }
+
+        synchronized long version() {
+            return version;
+        }
+
+        synchronized void load(String key, NearCacheEntry entry, long readVersion) {
+            if (readVersion == version) {
+                entries.put(key, entry);
+            }
+        }
+
+        synchronized void write(String key, NearCacheEntry entry) {
+            version++;
+            entries.put(key, entry);
+        }
+
+        synchronized void invalidate(String key) {
+            version++;
+            entries.remove(key);
+        }
+
+        synchronized void clear() {
+            version++;
+            entries.clear();
+        }
+    }
+
+    // leases a connection to the managers for each operation, by default all operations share one connection.
+    private static class ConnectionManagerImplementation implements ConnectionManager {
+
+        String url;
+        DatabaseType databaseType;
+        LeasedConnection shared;
+        int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+
+        private volatile ExecutorService asyncExecutor;
+        private Semaphore asyncPermits;
+
+        // a second connection to the same database for async tasks and bulk transactions, so they don't run inside the
+        // transaction of the shared connection or at the same time as its statements. leased by one thread at a time.
+        Properties properties;
+        LeasedConnection side;
+        final Semaphore sidePermit = new Semaphore(1, true);
+
+        // MySQL useCursorFetch=true in the URL or the properties
+        boolean cursorFetch;
+
+        public ConnectionManagerImplementation(String url) {
+            this.url = url;
+        }
+
+        public ConnectionManagerImplementation(String url, Connection connection, Properties properties) {
+            this.url = url;
+            this.shared = new LeasedConnection(this, connection);
+            this.properties = properties;
+            this.cursorFetch = isCursorFetch(url, properties);
+        }
+
+        static boolean isCursorFetch(String url, Properties properties) {
+            return url.toLowerCase().contains("usecursorfetch=true") || "true".equalsIgnoreCase(properties.getProperty("useCursorFetch"));
+        }
+
+        // a connection for one operation, closing the lease gives it back.
+        LeasedConnection acquire() throws SQLException {
+            LeasedConnection connection = reenterSide();
+            if (connection != null) {
+                return connection;
+            }
+            if (shared == null || shared.connection.isClosed()) {
+                throw new SQLHelperException("No operations allowed after connection closed");
+            }
+            return shared;
+        }
+
+        // the side connection with one more hold on it, if the current thread leased it.
+        private synchronized LeasedConnection reenterSide() {
+            if (side != null && side.owner == Thread.currentThread()) {
+                side.holds++;
+                return side;
+            }
+            return null;
+        }
+
+        // a connection of its own for the current thread until the lease is closed, the operations of the thread use it.
+        LeasedConnection acquireSide() throws SQLException {
+            return acquireSide(Thread.currentThread());
+        }
+
+        // like acquireSide() but no thread's operations use it and any thread can give it back, for cursors that
+        // outlive the call without blocking the shared connection.
+        LeasedConnection acquireSideDetached() throws SQLException {
+            return acquireSide(null);
+        }
+
+        private LeasedConnection acquireSide(Thread owner) throws SQLException {
+            LeasedConnection connection = reenterSide();
+            if (connection != null) {
+                return connection;
+            }
+
+            try {
+                sidePermit.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLHelperException("Interrupted while waiting for a connection.");
+            }
+            try {
+                synchronized (this) {
+                    if (shared == null || shared.connection.isClosed()) {
+                        throw new SQLHelperException("No operations allowed after connection closed");
+                    }
+                    if (side == null || side.connection.isClosed()) {
+                        side = new LeasedConnection(this, DriverManager.getConnection(url, properties));
+                    }
+                    side.owner = owner;
+                    side.holds = 1;
+                    return side;
+                }
+            } catch (SQLException | RuntimeException e) {
+                sidePermit.release();
+                throw e;
+            }
+        }
+
+        // for statements that must run in one transaction: the transaction already going on the shared connection,
+        // otherwise the side connection.
+        LeasedConnection acquireForTransaction() throws SQLException {
+            LeasedConnection connection = acquire();
+            if (connection != shared || !connection.connection.getAutoCommit()) {
+                return connection;
+            }
+            return acquireSide();
+        }
+
+        // like acquire() but the lease can be given back by any thread, for results that outlive the call.
+        LeasedConnection acquireDetached() throws SQLException {
+            return acquire();
+        }
+
+        // the connection leased by the current thread or null, used by transactions.
+        LeasedConnection current() throws SQLException {
+            return acquire();
+        }
+
+        void release(LeasedConnection connection) {
+            synchronized (this) {
+                if (connection != side || connection.holds <= 0 || --connection.holds > 0) {
+                    return;
+                }
+                connection.owner = null;
+            }
+
+            // a transaction left open is rolled back before the connection is used again
+            try {
+                if (!connection.connection.isClosed() && !connection.connection.getAutoCommit()) {
+                    connection.connection.rollback();
+                    connection.connection.setAutoCommit(true);
+                }
+            } catch (SQLException e) {
+                connection.closeConnection();
+            }
+            sidePermit.release();
+        }
+
+        ResultSet releaseOnClose(LeasedConnection connection, PreparedStatement ps, ResultSet rs) {
+            return rs;
+        }
+
+        // how many async operations run at the same time, one for the shared connection
+        int asyncPermits() {
+            return 1;
+        }
+
+        // run the task on the async executor, at most asyncPermits() tasks hold a connection at the same time.
+        // the task holds its own connection, the side connection or one from the pool.
+        <T> CompletableFuture<T> submitAsync(final Callable<T> task) {
+            final CompletableFuture<T> future = new CompletableFuture<>();
+            try {
+                ExecutorService executor = asyncExecutor();
+                final Semaphore permits = asyncPermits;
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            permits.acquire();
+                            try {
+                                // cancelled while waiting
+                                if (future.isDone()) {
+                                    return;
+                                }
+                                LeasedConnection connection = acquireSide();
+                                try {
+                                    future.complete(task.call());
+                                } finally {
+                                    connection.close();
+                                }
+                            } finally {
+                                permits.release();
+                            }
+                        } catch (Throwable e) {
+                            future.completeExceptionally(e);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                future.completeExceptionally(new SQLHelperException("No operations allowed after connection closed"));
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
 
-            return resultList;
+        // run the task on the async executor without waiting for a permit, false if the executor is shut down.
+        boolean runAsync(Runnable task) {
+            try {
+                asyncExecutor().execute(task);
+                return true;
+            } catch (RejectedExecutionException | SQLException e) {
+                return false;
+            }
         }
-    }
 
-    private static class SQLHelperStatmentMetaDataImplementation implements SQLHelperStatmentMetaData {
+        private ExecutorService asyncExecutor() throws SQLException {
+            ExecutorService executor = asyncExecutor;
+            if (executor == null) {
+                synchronized (this) {
+                    executor = asyncExecutor;
+                    if (executor == null) {
+                        if (isClosedQuietly()) {
+                            throw new SQLHelperException("No operations allowed after connection closed");
+                        }
+                        int permits = Math.max(1, asyncPermits());
+                        asyncPermits = new Semaphore(permits, true);
+                        asyncExecutor = executor = newAsyncExecutor(permits);
+                    }
+                }
+            }
+            return executor;
+        }
 
-        // 0 -> SQLString
-        // 1 -> columns
-        // 2 -> whereString
-        // 3 -> havingString
-        // 4 -> table
-        // 5 -> values
-        // 6 -> where values
-        // 7 -> having values
-        // 8 -> required values count
-        public Object[] objects = new Object[9];
+        private boolean isClosedQuietly() {
+            try {
+                return isClosed();
+            } catch (Exception e) {
+                return true;
+            }
+        }
 
-        public SQLHelperStatmentMetaDataImplementation() {
-            objects[8] = 0;
+        // a virtual thread per task when the JVM has them (java 21), otherwise a thread per permit.
+        private static ExecutorService newAsyncExecutor(int threads) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                    int count = 0;
+
+                    @Override
+                    public synchronized Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "SQLHelper-async-" + (++count));
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+            }
         }
 
-        @Override
-        public String getSQLString() throws Exception {
-            return (String) objects[0];
+        // queued async tasks still run, new ones are rejected.
+        void shutdownAsync() {
+            ExecutorService executor;
+            synchronized (this) {
+                executor = asyncExecutor;
+            }
+            if (executor != null) {
+                executor.shutdown();
+            }
         }
 
-        @Override
-        public String getColumns() throws Exception {
-            return (String) objects[1];
+        synchronized void setStatementCacheSize(int size) {
+            statementCacheSize = size;
+            if (shared != null) {
+                shared.statementCache.setMaxSize(size);
+            }
+            if (side != null) {
+                side.statementCache.setMaxSize(size);
+            }
         }
 
-        @Override
-        public String getWhereString() {
-            return (String) objects[2];
+        synchronized long getStatementCacheHits() {
+            return (shared == null ? 0 : shared.statementCache.getHits()) + (side == null ? 0 : side.statementCache.getHits());
         }
 
-        @Override
-        public String getHavingString() {
-            return (String) objects[3];
+        synchronized long getStatementCacheMisses() {
+            return (shared == null ? 0 : shared.statementCache.getMisses()) + (side == null ? 0 : side.statementCache.getMisses());
         }
 
         @Override
-        public String getTable() {
-            return (String) objects[4];
+        public Connection getConnection() {
+            return shared == null ? null : shared.connection;
         }
 
         @Override
-        public Object[] getValues() {
-            return (Object[]) objects[5];
+        public String getDatabaseURL() {
+            return url;
         }
 
         @Override
-        public Object[] getWhereValues() {
-            return (Object[]) objects[6];
+        public DatabaseType getDatabaseType() {
+            return databaseType;
         }
 
         @Override
-        public Object[] getHavingValues() {
-            return (Object[]) objects[7];
+        public boolean isClosed() throws Exception {
+            return shared == null || shared.connection.isClosed();
         }
 
         @Override
-        public int getRequiredValuesCount() throws Exception {
-            return (int) objects[8];
+        public void close() throws Exception {
+            if (shared == null) {
+                return;
+            }
+            synchronized (this) {
+                if (side != null) {
+                    side.closeConnection();
+                }
+            }
+            shared.statementCache.clear();
+            if (!shared.connection.isClosed()) {
+                if (!shared.connection.getAutoCommit()) {
+                    shared.connection.rollback();
+                }
+                shared.connection.close();
+            }
         }
+    }
 
-        @Override
-        public Object[] getAllObjects() throws Exception {
-            Object[] _objects = new Object[objects.length];
+    // a pool of connections configured by the sqlhelper.pool.* properties.
+    private static class PooledConnectionManagerImplementation extends ConnectionManagerImplementation {
 
-            System.arraycopy(objects, 0, _objects, 0, objects.length);
+        // connections used within this time are not validated again on borrow
+        static final long VALIDATION_BYPASS_MILLIS = 500;
 
-            return _objects;
-        }
-    }
+        final Properties properties;
+        final int minSize;
+        final int maxSize;
+        final long acquireTimeout;
+        final int validationTimeout;
+        final long idleTimeout;
+        final long leakDetectionThreshold;
 
-    private static class TableManagerImplementation implements TableManager {
+        // ordered by last use, borrowed from the end so the most recently used connections are reused first
+        final ArrayDeque<LeasedConnection> idle = new ArrayDeque<>();
+        final Set<LeasedConnection> leased = new HashSet<>();
 
-        Connection connection;
+        // threads waiting for a connection, served in arrival order
+        final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
 
-        public TableManagerImplementation(Connection connection) {
-            this.connection = connection;
-        }
+        // the connection leased by each thread, so nested operations and transactions use the same connection
+        final ThreadLocal<LeasedConnection> threadConnection = new ThreadLocal<>();
 
-        @Override
-        public void dropTable(String table) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
+        Timer housekeeper;
+        int total = 0;
+        boolean closed = false;
+        long retiredHits = 0;
+        long retiredMisses = 0;
+
+        public PooledConnectionManagerImplementation(String url, Properties properties, Properties poolProperties) throws SQLException {
+            super(url);
+
+            this.properties = new Properties();
+            for (String name : properties.stringPropertyNames()) {
+                if (!name.startsWith(POOL_PROPERTY_PREFIX)) {
+                    this.properties.setProperty(name, properties.getProperty(name));
+                }
             }
+            this.cursorFetch = isCursorFetch(url, this.properties);
 
-            try (PreparedStatement ps = connection.prepareStatement("DROP TABLE " + table)) {
-                ps.executeUpdate();
+            minSize = (int) poolProperty(poolProperties, "minSize", 0);
+            maxSize = (int) poolProperty(poolProperties, "maxSize", 10);
+            acquireTimeout = poolProperty(poolProperties, "acquireTimeout", 30000);
+            validationTimeout = (int) poolProperty(poolProperties, "validationTimeout", 5);
+            idleTimeout = poolProperty(poolProperties, "idleTimeout", 600000);
+            leakDetectionThreshold = poolProperty(poolProperties, "leakDetectionThreshold", 0);
+
+            if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+                throw new SQLHelperException("Invalid pool size, minSize: (" + minSize + ") maxSize: (" + maxSize + ")");
             }
-        }
 
-        @Override
-        public void dropTableIfExists(String table) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
+            // open at least one connection now, so a wrong URL fails here as it does without a pool
+            try {
+                for (int i = 0; i < Math.max(minSize, 1); i++) {
+                    LeasedConnection connection = newConnection();
+                    connection.lastUsed = System.currentTimeMillis();
+                    idle.addLast(connection);
+                    total++;
+                }
+            } catch (SQLException e) {
+                for (LeasedConnection connection : idle) {
+                    connection.closeConnection();
+                }
+                throw e;
             }
 
-            if (isTableExists(table)) {
-                dropTable(table);
+            long period = Long.MAX_VALUE;
+            if (idleTimeout > 0) {
+                period = idleTimeout;
+            }
+            if (leakDetectionThreshold > 0) {
+                period = Math.min(period, leakDetectionThreshold);
+            }
+            if (period != Long.MAX_VALUE) {
+                housekeeper = new Timer("SQLHelper pool housekeeper", true);
+                period = Math.max(1000, period / 2);
+                housekeeper.schedule(new TimerTask() {
+                    @Override
+                    public void run() {
+                        housekeep();
+                    }
+                }, period, period);
             }
         }
 
-        @Override
-        public void createTable(String table, String columnsNamesWithType) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
+        private static long poolProperty(Properties poolProperties, String name, long defaultValue) throws SQLHelperException {
+            String value = poolProperties.getProperty(name);
+            if (value == null || value.trim().isEmpty()) {
+                return defaultValue;
             }
-
-            StringBuilder sqlS = new StringBuilder(50);
-            sqlS.append("CREATE TABLE ").append(table).append(" ( ").append(columnsNamesWithType).append(" ) ");
-
-            try (PreparedStatement ps = connection.prepareStatement(sqlS.toString())) {
-                ps.executeUpdate();
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                throw new SQLHelperException("Invalid value (" + value + ") for " + POOL_PROPERTY_PREFIX + name);
             }
         }
 
         @Override
-        public void createTableIfNotExists(String table, String columnsNamesWithType) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
+        LeasedConnection acquire() throws SQLException {
+            LeasedConnection connection = reenter();
+            if (connection == null) {
+                connection = borrow(Thread.currentThread());
+                threadConnection.set(connection);
             }
+            return connection;
+        }
 
-            if (!isTableExists(table)) {
-                createTable(table, columnsNamesWithType);
-            }
+        @Override
+        LeasedConnection acquireDetached() throws SQLException {
+            LeasedConnection connection = reenter();
+            return connection == null ? borrow(null) : connection;
         }
 
+        // every thread already has its own connection
         @Override
-        public boolean isTableExists(String table) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
+        LeasedConnection acquireSide() throws SQLException {
+            return acquire();
+        }
 
-            try {
-                try (PreparedStatement ps = connection.prepareStatement("SELECT 1 FROM " + table)) {
-                    ResultSet rs = ps.executeQuery();
-                    rs.close();
-                }
-                return true;
-            } catch (Throwable e) {
-                return false;
-            }
+        @Override
+        LeasedConnection acquireSideDetached() throws SQLException {
+            return acquireDetached();
         }
 
         @Override
-        public void addColumn(String table, String columnWithType) throws Exception {
-            try (PreparedStatement ps = connection.prepareStatement("ALTER TABLE " + table + " ADD " + columnWithType)) {
-                ps.executeUpdate();
+        LeasedConnection current() throws SQLException {
+            LeasedConnection connection = threadConnection.get();
+            synchronized (this) {
+                if (closed) {
+                    throw new SQLHelperException("No operations allowed after connection closed");
+                }
+                return connection != null && connection.owner == Thread.currentThread() ? connection : null;
             }
         }
 
-        @Override
-        public void dropColumn(String table, String column) throws Exception {
-            String columns = SQLHelper.getColumns(table, connection);
-            if (!columns.toLowerCase().contains(column.toLowerCase())) {
-                System.err.println("COLUMN NOT FOUND");
-                return;
+        // the connection already leased by this thread, with one more hold on it.
+        private LeasedConnection reenter() throws SQLException {
+            LeasedConnection connection = threadConnection.get();
+            if (connection == null) {
+                return null;
             }
-            try (PreparedStatement ps = connection.prepareStatement("ALTER TABLE " + table + " DROP COLUMN " + column)) {
-                ps.executeUpdate();
-            } catch (Throwable t) {
-                System.err.println("SSSSSSSS" + t);
+            synchronized (this) {
+                if (closed) {
+                    throw new SQLHelperException("No operations allowed after connection closed");
+                }
+                if (connection.owner == Thread.currentThread()) {
+                    connection.holds++;
+                    return connection;
+                }
+            }
+            // given back from another thread
+            threadConnection.remove();
+            return null;
+        }
 
-                String[] cols = columns.split(",");
-                String[] colsWithoutColumn = new String[cols.length - 1];
-                String[] types = new String[colsWithoutColumn.length];
-                int index = 0;
+        private LeasedConnection borrow(Thread owner) throws SQLException {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(acquireTimeout);
 
-                for (String col : cols) {
-                    if (!col.equalsIgnoreCase(column)) {
-                        colsWithoutColumn[index++] = col;
-                    }
-                }
+            while (true) {
+                LeasedConnection connection;
 
-                try {
-                    try (PreparedStatement ps = connection.prepareStatement("SELECT * FROM " + table)) {
-                        for (int i = 0; i < colsWithoutColumn.length; i++) {
-                            types[i] = ps.getMetaData().getColumnTypeName(i + 1) + "(" + ps.getMetaData().getColumnDisplaySize(i + 1) + ")";
-                        }
+                synchronized (this) {
+                    if (closed) {
+                        throw new SQLHelperException("No operations allowed after connection closed");
                     }
-
-                    StringBuilder sql = new StringBuilder((colsWithoutColumn.length * 6) * 5);
-                    StringBuilder sqlColumns = new StringBuilder(colsWithoutColumn.length * 6);
-                    for (int i = 0; i < colsWithoutColumn.length; i++) {
-                        if (i == colsWithoutColumn.length - 1) {
-                            sql.append(colsWithoutColumn[i]).append(" ").append(types[i]);
-                            sqlColumns.append(colsWithoutColumn[i]);
+                    connection = idle.pollLast();
+                    if (connection == null) {
+                        if (total < maxSize) {
+                            // reserve the place, the connection is opened outside the lock
+                            total++;
                         } else {
-                            sql.append(colsWithoutColumn[i]).append(" ").append(types[i]).append(",");
-                            sqlColumns.append(colsWithoutColumn[i]).append(",");
+                            connection = await(deadline);
                         }
                     }
+                }
 
-                    try (PreparedStatement ps = connection.prepareStatement("ALTER TABLE " + table + " RENAME TO " + table + "_sqlhelper_old")) {
-                        ps.executeUpdate();
+                if (connection == null) {
+                    try {
+                        connection = newConnection();
+                    } catch (SQLException | RuntimeException e) {
+                        synchronized (this) {
+                            total--;
+                            notifyAll();
+                        }
+                        throw e;
                     }
+                } else if (!isValid(connection)) {
+                    retire(connection);
+                    continue;
+                }
 
-                    createTable(table, sql.toString());
-
-                    System.out.println("INSERT INTO " + table + " (" + sqlColumns + ")" + " SELECT " + sqlColumns + " FROM " + table + "_sqlhelper_old");
+                synchronized (this) {
+                    connection.owner = owner;
+                    connection.holds = 1;
+                    connection.leasedAt = System.currentTimeMillis();
+                    connection.leakReported = false;
+                    connection.leaseTrace = leakDetectionThreshold > 0 ? new Throwable("The connection was leased here") : null;
+                    leased.add(connection);
+                }
+                return connection;
+            }
+        }
 
-                    try (PreparedStatement ps = connection.prepareStatement("INSERT INTO " + table + " (" + sqlColumns + ")" + " SELECT " + sqlColumns + " FROM " + table + "_sqlhelper_old")) {
-                        ps.executeUpdate();
+        // wait in line for a connection given back by another thread, returns null if a place was freed
+        // for a new connection instead. must be called while holding the lock.
+        private LeasedConnection await(long deadline) throws SQLException {
+            Waiter waiter = new Waiter();
+            waiters.addLast(waiter);
+            try {
+                while (waiter.connection == null) {
+                    if (closed) {
+                        throw new SQLHelperException("No operations allowed after connection closed");
                     }
-                    try (PreparedStatement ps = connection.prepareStatement("DROP TABLE " + table + "_sqlhelper_old")) {
-                        ps.executeUpdate();
+                    if (total < maxSize && waiters.peekFirst() == waiter) {
+                        total++;
+                        return null;
+                    }
+                    long wait = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (wait <= 0) {
+                        throw new SQLHelperException("Timeout after (" + acquireTimeout + ") ms waiting for a connection, all (" + maxSize + ") connections are in use.");
                     }
-                } catch (Throwable e) {
                     try {
-                        if (isTableExists(table + "_sqlhelper_old")) {
-                            dropTableIfExists(table);
-                            try (PreparedStatement ps = connection.prepareStatement("ALTER TABLE " + table + "_sqlhelper_old" + " RENAME TO " + table)) {
-                                ps.executeUpdate();
-                            }
-                        }
-
-                        try (PreparedStatement ps = connection.prepareStatement("SELECT * INTO " + table + "_sqlhelper_old" + " FROM " + table)) {
-                            ps.close();
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        if (waiter.connection != null) {
+                            waiters.remove(waiter);
+                            handOff(waiter.connection);
                         }
-                    } catch (Throwable e1) {
-                        throw new SQLFeatureNotSupportedException("drop column is not supported.");
+                        throw new SQLHelperException("Interrupted while waiting for a connection.");
                     }
                 }
+                return waiter.connection;
+            } finally {
+                waiters.remove(waiter);
             }
         }
 
-        @Override
-        public String getColumns(String table) throws Exception {
-            return SQLHelper.getColumns(table, connection);
+        // give the connection to the longest waiting thread, so new threads can't take it first.
+        // must be called while holding the lock.
+        private void handOff(LeasedConnection connection) {
+            Waiter waiter = waiters.pollFirst();
+            if (waiter == null) {
+                idle.addLast(connection);
+            } else {
+                waiter.connection = connection;
+                notifyAll();
+            }
         }
-    }
 
-    private static class TransactionManagerImplementation implements TransactionManager {
-
-        Connection connection;
+        private LeasedConnection newConnection() throws SQLException {
+            return new LeasedConnection(this, DriverManager.getConnection(url, properties));
+        }
 
-        public TransactionManagerImplementation(Connection connection) {
-            this.connection = connection;
+        private boolean isValid(LeasedConnection connection) {
+            if (validationTimeout <= 0 || System.currentTimeMillis() - connection.lastUsed < VALIDATION_BYPASS_MILLIS) {
+                return true;
+            }
+            try {
+                return connection.connection.isValid(validationTimeout);
+            } catch (SQLException e) {
+                return false;
+            } catch (AbstractMethodError e) {
+                // JDBC 3 driver
+                try {
+                    return !connection.connection.isClosed();
+                } catch (SQLException e1) {
+                    return false;
+                }
+            }
         }
 
         @Override
-        public void begin() throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
+        void release(LeasedConnection connection) {
+            synchronized (this) {
+                if (connection.holds <= 0 || --connection.holds > 0) {
+                    return;
+                }
+                leased.remove(connection);
+                connection.owner = null;
+                connection.leaseTrace = null;
+            }
+
+            if (threadConnection.get() == connection) {
+                threadConnection.remove();
+            }
+
+            boolean reusable = reset(connection);
+
+            synchronized (this) {
+                if (reusable && !closed) {
+                    connection.lastUsed = System.currentTimeMillis();
+                    handOff(connection);
+                    return;
+                }
+            }
+            retire(connection);
+        }
+
+        // a transaction left open is rolled back before the connection is used again.
+        private boolean reset(LeasedConnection connection) {
+            try {
+                if (connection.connection.isClosed()) {
+                    return false;
+                }
+                if (!connection.connection.getAutoCommit()) {
+                    connection.connection.rollback();
+                    connection.connection.setAutoCommit(true);
+                }
+                return true;
+            } catch (SQLException e) {
+                return false;
+            }
+        }
+
+        private void retire(LeasedConnection connection) {
+            connection.closeConnection();
+            synchronized (this) {
+                total--;
+                retiredHits += connection.statementCache.getHits();
+                retiredMisses += connection.statementCache.getMisses();
+                notifyAll();
+            }
+        }
+
+        // close connections idle for too long and report connections that were not given back.
+        private void housekeep() {
+            long now = System.currentTimeMillis();
+            List<LeasedConnection> expired = new ArrayList<>();
+            List<LeasedConnection> leaks = new ArrayList<>();
+
+            synchronized (this) {
+                if (idleTimeout > 0) {
+                    Iterator<LeasedConnection> iterator = idle.iterator();
+                    while (iterator.hasNext() && total - expired.size() > minSize) {
+                        LeasedConnection connection = iterator.next();
+                        if (now - connection.lastUsed < idleTimeout) {
+                            break;
+                        }
+                        iterator.remove();
+                        expired.add(connection);
+                    }
+                }
+                if (leakDetectionThreshold > 0) {
+                    for (LeasedConnection connection : leased) {
+                        if (!connection.leakReported && now - connection.leasedAt > leakDetectionThreshold) {
+                            connection.leakReported = true;
+                            leaks.add(connection);
+                        }
+                    }
+                }
             }
 
-            if (connection.getAutoCommit()) {
-                connection.setAutoCommit(false);
-                connection.setSavepoint();
+            for (LeasedConnection connection : expired) {
+                retire(connection);
             }
+            for (LeasedConnection connection : leaks) {
+                // one record with the stack trace of who leased it
+                LOGGER.log(Level.WARNING, "A connection is leased for more than (" + leakDetectionThreshold + ") ms, it may never be given back.", connection.leaseTrace);
+            }
+        }
+
+        @Override
+        ResultSet releaseOnClose(LeasedConnection connection, PreparedStatement ps, ResultSet rs) {
+            return closeWith(ResultSet.class, rs, true, ps, connection);
+        }
+
+        // one connection for each async operation
+        @Override
+        int asyncPermits() {
+            return maxSize;
         }
 
         @Override
-        public void commit() throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
+        synchronized void setStatementCacheSize(int size) {
+            statementCacheSize = size;
+            for (LeasedConnection connection : idle) {
+                connection.statementCache.setMaxSize(size);
             }
-
-            if (connection.getAutoCommit()) {
-                throw new SQLHelperException("Can't commit while no transaction is going.");
+            for (LeasedConnection connection : leased) {
+                connection.statementCache.setMaxSize(size);
             }
-
-            connection.commit();
-            connection.setAutoCommit(true);
         }
 
         @Override
-        public void rollback() throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
+        synchronized long getStatementCacheHits() {
+            long hits = retiredHits;
+            for (LeasedConnection connection : idle) {
+                hits += connection.statementCache.getHits();
             }
-
-            if (connection.getAutoCommit()) {
-                throw new SQLHelperException("Can't rollback while no transaction is going.");
+            for (LeasedConnection connection : leased) {
+                hits += connection.statementCache.getHits();
             }
-
-            connection.rollback();
-            connection.setAutoCommit(true);
+            return hits;
         }
 
         @Override
-        public void rollback(Savepoint savepoint) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
+        synchronized long getStatementCacheMisses() {
+            long misses = retiredMisses;
+            for (LeasedConnection connection : idle) {
+                misses += connection.statementCache.getMisses();
             }
-
-            if (connection.getAutoCommit()) {
-                throw new SQLHelperException("Can't rollback while no transaction is going.");
+            for (LeasedConnection connection : leased) {
+                misses += connection.statementCache.getMisses();
             }
-
-            connection.rollback(savepoint);
+            return misses;
         }
 
+        /**
+         * the returned connection is leased from the pool, closing it gives it
+         * back to the pool.
+         */
         @Override
-        public boolean isAutoCommit() throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
+        public Connection getConnection() {
+            try {
+                LeasedConnection connection = acquire();
+                return closeWith(Connection.class, connection.connection, false, connection);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Can't get a connection from the pool: " + e, e);
             }
+        }
 
-            return connection.getAutoCommit();
+        @Override
+        public synchronized boolean isClosed() {
+            return closed;
         }
 
+        // idle connections are closed now, leased connections when they are given back.
         @Override
-        public Savepoint createSavePoint() throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
+        public void close() throws Exception {
+            List<LeasedConnection> connections;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                connections = new ArrayList<>(idle);
+                idle.clear();
+                notifyAll();
             }
-
-            if (connection.getAutoCommit()) {
-                throw new SQLHelperException("Can't create save point while no transaction is going.");
+            if (housekeeper != null) {
+                housekeeper.cancel();
+            }
+            for (LeasedConnection connection : connections) {
+                retire(connection);
             }
-
-            return connection.setSavepoint();
         }
     }
 
-    private static class KeyValueTableImplementation implements KeyValueTable {
+    private static class Waiter {
 
-        Connection connection;
-        String keyValueTableName = "sqlhelper_key_value_table";
+        LeasedConnection connection;
+    }
+
+    // a connection with its own prepared statements cache, closing it gives it back to the manager.
+    private static class LeasedConnection implements AutoCloseable {
 
-        public KeyValueTableImplementation(Connection connection) {
+        final ConnectionManagerImplementation manager;
+        final Connection connection;
+        final StatementCache statementCache;
+
+        // pool bookkeeping, guarded by the manager
+        Thread owner;
+        int holds;
+        long leasedAt;
+        long lastUsed;
+        Throwable leaseTrace;
+        boolean leakReported;
+
+        public LeasedConnection(ConnectionManagerImplementation manager, Connection connection) {
+            this.manager = manager;
             this.connection = connection;
+            this.statementCache = new StatementCache(connection, manager.statementCacheSize);
         }
 
-        @Override
-        public String getKeyValueTableName() {
-            return keyValueTableName;
+        PreparedStatement prepareStatement(String sql) throws SQLException {
+            return connection.prepareStatement(sql);
         }
 
-        @Override
-        public void put(String key, Object value) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
+        PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+            return connection.prepareStatement(sql, resultSetType, resultSetConcurrency);
+        }
 
-            if (key == null) {
-                throw new SQLHelperException("key is null.");
-            }
+        // the lease is given back when the result set is closed
+        ResultSet releaseOnClose(PreparedStatement ps, ResultSet rs) {
+            return manager.releaseOnClose(this, ps, rs);
+        }
 
-            int NUM_ROWS_EFFECTED;
+        @Override
+        public void close() {
+            manager.release(this);
+        }
 
+        void closeConnection() {
+            statementCache.clear();
             try {
-                try (PreparedStatement ps = connection.prepareStatement("UPDATE " + keyValueTableName + " SET sqlhelper_value = ? WHERE sqlhelper_key = ?")) {
-                    setValuesForPreparedStatment(ps, value, 1);
-                    ps.setString(2, key);
-                    NUM_ROWS_EFFECTED = ps.executeUpdate();
-                }
-                if (NUM_ROWS_EFFECTED == 0) {
-                    try (PreparedStatement ps = connection.prepareStatement("INSERT INTO " + keyValueTableName + " (sqlhelper_key,sqlhelper_value) VALUES (?,?) ")) {
-                        ps.setString(1, key);
-                        setValuesForPreparedStatment(ps, value, 2);
-                        ps.executeUpdate();
-                    }
-                }
+                connection.close();
             } catch (SQLException e) {
-                if (!isTableExists(keyValueTableName, connection)) {
-                    try (PreparedStatement ps = connection.prepareStatement("CREATE TABLE " + keyValueTableName + " (sqlhelper_key VARCHAR(1024),sqlhelper_value VARCHAR(1024))")) {
-                        ps.executeUpdate();
-                    }
+            }
+        }
+    }
 
-                    put(key, value);
+    private static class SchemaCatalog {
 
-                } else {
-                    throw e;
+        ConnectionManagerImplementation connectionManager;
+
+        // lower case table name -> schema
+        final Map<String, TableSchema> tables = new ConcurrentHashMap<>();
+
+        // lower case table name -> does the table exist
+        final Map<String, Boolean> existingTables = new ConcurrentHashMap<>();
+
+        public SchemaCatalog(ConnectionManagerImplementation connectionManager) {
+            this.connectionManager = connectionManager;
+        }
+
+        public TableSchema getTable(String table) throws Exception {
+            String key = table.trim().toLowerCase();
+            TableSchema schema = tables.get(key);
+            if (schema == null) {
+                try (LeasedConnection connection = connectionManager.acquire()) {
+                    schema = loadTableSchema(table, connection.connection);
                 }
+                tables.put(key, schema);
             }
+            return schema;
         }
 
-        @Override
-        public Object get(String key) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
+        public String getColumns(String table) throws Exception {
+            return getTable(table).columns;
+        }
 
-            try (PreparedStatement ps = connection.prepareStatement("SELECT sqlhelper_value FROM " + keyValueTableName + " WHERE sqlhelper_key = ?")) {
-                ps.setString(1, key);
-                try (ResultSet rs = ps.executeQuery()) {
-                    if (rs.next()) {
-                        Object obj = rs.getObject("sqlhelper_value");
-                        return obj;
-                    } else {
-                        throw new SQLHelperException("Unknown key '" + key + "'.");
-                    }
-                }
-            } catch (Throwable e) {
-                if (!isTableExists(keyValueTableName, connection)) {
-                    try (PreparedStatement ps1 = connection.prepareStatement("CREATE TABLE " + keyValueTableName + " (sqlhelper_key VARCHAR(1024),sqlhelper_value VARCHAR(1024))")) {
-                        ps1.executeUpdate();
-                    }
-                    throw new SQLHelperException("Unknown key '" + key + "'.");
-                } else {
-                    throw e;
+        public boolean isTableExists(String table) throws Exception {
+            String key = table.trim().toLowerCase();
+            Boolean exists = existingTables.get(key);
+            if (exists == null) {
+                try (LeasedConnection connection = connectionManager.acquire()) {
+                    exists = SQLHelper.isTableExists(table, connection.connection);
                 }
+                existingTables.put(key, exists);
             }
+            return exists;
         }
 
-        @Override
-        public <T> T get(String key, Class<T> resultType) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
+        // called after the table was created or dropped by SQLHelper
+        public void setTableExists(String table, boolean exists) {
+            String key = table.trim().toLowerCase();
+            tables.remove(key);
+            existingTables.put(key, exists);
+        }
 
-            T obj = null;
-            try (PreparedStatement ps = connection.prepareStatement("SELECT sqlhelper_value FROM " + keyValueTableName + " WHERE sqlhelper_key = ?")) {
-                ps.setString(1, key);
-                try (ResultSet rs = ps.executeQuery()) {
-                    if (rs.next()) {
-                        try {
-                            obj = rs.getObject("sqlhelper_value", resultType);
-                            if (!obj.getClass().equals(resultType)) {
-                                obj = castValue(obj, resultType);
-                            }
-                        } catch (Throwable e) {
-                            try {
-                                obj = castValue(rs.getObject("sqlhelper_value"), resultType);
+        public void invalidate(String table) {
+            String key = table.trim().toLowerCase();
+            tables.remove(key);
+            existingTables.remove(key);
+        }
 
-                            } catch (Throwable e1) {
-                                throw new SQLHelperException("Error happened while getting value for key '" + key + "': " + e1);
-                            }
-                        }
-                    } else {
-                        throw new SQLHelperException("Unknown key '" + key + "'.");
-                    }
-                }
-            } catch (Throwable t) {
-                if (!isTableExists(keyValueTableName, connection)) {
-                    try (PreparedStatement ps1 = connection.prepareStatement("CREATE TABLE " + keyValueTableName + " (sqlhelper_key VARCHAR(1024),sqlhelper_value VARCHAR(1024))")) {
-                        ps1.executeUpdate();
-                    }
-                    throw new SQLHelperException("Unknown key '" + key + "'.");
-                } else {
-                    throw t;
-                }
-            }
-            return obj;
+        public void clear() {
+            tables.clear();
+            existingTables.clear();
         }
+    }
 
-        @Override
-        public boolean containsKey(String key) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
+    private static class TableSchema {
+
+        // comma separated, in the same order as in the database
+        final String columns;
+        final String[] columnNames;
+        // java.sql.Types of each column
+        final int[] columnTypes;
+        final String[] primaryKeys;
+        // columns of each unique index
+        final List<String[]> uniqueIndexes;
+
+        public TableSchema(String[] columnNames, int[] columnTypes, String[] primaryKeys, List<String[]> uniqueIndexes) {
+            this.columnNames = columnNames;
+            this.columnTypes = columnTypes;
+            this.primaryKeys = primaryKeys;
+            this.uniqueIndexes = uniqueIndexes;
+
+            StringBuilder colNames = new StringBuilder(columnNames.length * 8);
+            for (int i = 0; i < columnNames.length; i++) {
+                colNames.append(i == 0 ? "" : ",").append(columnNames[i]);
             }
+            this.columns = colNames.toString();
+        }
 
-            try (PreparedStatement ps = connection.prepareStatement("SELECT COUNT(sqlhelper_key) FROM " + keyValueTableName + " WHERE sqlhelper_key = ?")) {
-                ps.setString(1, key);
-                try (ResultSet rs = ps.executeQuery()) {
-                    while (rs.next()) {
-                        return rs.getInt(1) > 0;
-                    }
-                }
-            } catch (Throwable t) {
-                if (!isTableExists(keyValueTableName, connection)) {
-                    try (PreparedStatement ps1 = connection.prepareStatement("CREATE TABLE " + keyValueTableName + " (sqlhelper_key VARCHAR(1024),sqlhelper_value VARCHAR(1024))")) {
-                        ps1.executeUpdate();
-                    }
-                    return false;
-                } else {
-                    throw t;
+        // true if the columns are the primary key or a unique index, in any order
+        public boolean isUniqueKey(List<String> keys) {
+            if (sameColumns(primaryKeys, keys)) {
+                return true;
+            }
+            for (String[] index : uniqueIndexes) {
+                if (sameColumns(index, keys)) {
+                    return true;
                 }
             }
             return false;
         }
 
-        @Override
-        public String containsValue(Object value) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
-
-            String res = null;
-
-            try (PreparedStatement ps = connection.prepareStatement("SELECT sqlhelper_key FROM " + keyValueTableName + " WHERE sqlhelper_value = ?")) {
-                setValuesForPreparedStatment(ps, value, 1);
-                try (ResultSet rs = ps.executeQuery()) {
-                    while (rs.next()) {
-                        res = rs.getString(1);
-                    }
-                } catch (Throwable e) {
-                    ps.setString(1, String.valueOf(value));
-                    try (ResultSet rs = ps.executeQuery()) {
-                        while (rs.next()) {
-                            res = rs.getString(1);
-                        }
-                    } catch (Throwable e1) {
-                        try (ResultSet rs = ps.executeQuery()) {
-                            while (rs.next()) {
-                                res = rs.getString(1);
-                            }
-                        }
-                    }
-                }
-            } catch (Throwable t) {
-                if (!isTableExists(keyValueTableName, connection)) {
-                    try (PreparedStatement ps1 = connection.prepareStatement("CREATE TABLE " + keyValueTableName + " (sqlhelper_key VARCHAR(1024),sqlhelper_value VARCHAR(1024))")) {
-                        ps1.executeUpdate();
-                    }
-                    return null;
-                } else {
-                    throw t;
+        // the primary key and the unique indexes that aren't on the primary key columns
+        public int uniqueKeyCount() {
+            int count = primaryKeys.length == 0 ? 0 : 1;
+            for (String[] index : uniqueIndexes) {
+                if (!sameColumns(index, Arrays.asList(primaryKeys))) {
+                    count++;
                 }
             }
-            return res;
+            return count;
         }
 
-        @Override
-        public Object remove(String key) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
+        private static boolean sameColumns(String[] columns, List<String> keys) {
+            if (columns.length == 0 || columns.length != keys.size()) {
+                return false;
             }
-
-            Object value = null;
-            if (containsKey(key)) {
-                value = get(key);
-                try (PreparedStatement ps = connection.prepareStatement("DELETE FROM " + keyValueTableName + " WHERE sqlhelper_key = ?")) {
-                    ps.setString(1, key);
-                    ps.executeUpdate();
+            for (String column : columns) {
+                if (!containsIgnoreCase(keys, column)) {
+                    return false;
                 }
             }
-            return value;
+            return true;
         }
+    }
 
-        @Override
-        public void clear() throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
+    private static class StatementCache {
 
-            try (PreparedStatement ps = connection.prepareStatement("DELETE FROM " + keyValueTableName)) {
-                ps.executeUpdate();
-            } catch (Throwable t) {
-                if (!isTableExists(keyValueTableName, connection)) {
-                    try (PreparedStatement ps1 = connection.prepareStatement("CREATE TABLE " + keyValueTableName + " (sqlhelper_key VARCHAR(1024),sqlhelper_value VARCHAR(1024))")) {
-                        ps1.executeUpdate();
-                    }
-                } else {
-                    throw t;
-                }
-            }
-        }
+        Connection connection;
 
-        @Override
-        public int size() throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
+        int maxSize;
 
-            try (PreparedStatement ps = connection.prepareStatement("SELECT COUNT(sqlhelper_key) FROM " + keyValueTableName)) {
-                try (ResultSet rs = ps.executeQuery()) {
-                    if (rs.next()) {
-                        return rs.getInt(1);
-                    }
-                }
-            } catch (Throwable t) {
-                if (!isTableExists(keyValueTableName, connection)) {
-                    try (PreparedStatement ps1 = connection.prepareStatement("CREATE TABLE " + keyValueTableName + " (sqlhelper_key VARCHAR(1024),sqlhelper_value VARCHAR(1024))")) {
-                        ps1.executeUpdate();
+        long hits = 0;
+
+        long misses = 0;
+
+        // access ordered, so the eldest entry is the least recently used statement
+        final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() > maxSize) {
+                    // a statement in use is closed by release()
+                    if (!eldest.getValue().inUse) {
+                        eldest.getValue().closeStatement();
                     }
-                } else {
-                    throw t;
+                    return true;
                 }
+                return false;
             }
+        };
 
-            return 0;
+        public StatementCache(Connection connection, int maxSize) {
+            this.connection = connection;
+            this.maxSize = maxSize;
+        }
+
+        // a statement is marked in use until CachedStatement.close(), if the same SQL is used again before
+        // that, a second statement is prepared and closed after its use. the map isn't changed on a hit,
+        // so reusing a statement doesn't allocate.
+        public synchronized CachedStatement prepare(String sql) throws SQLException {
+            CachedStatement cached = statements.get(sql);
+            if (cached != null && !cached.inUse) {
+                if (!cached.statement.isClosed()) {
+                    hits++;
+                    cached.inUse = true;
+                    return cached;
+                }
+                statements.remove(sql);
+                cached = null;
+            }
+            misses++;
+            CachedStatement created = new CachedStatement(this, sql, connection.prepareStatement(sql));
+            created.inUse = true;
+            if (cached == null && maxSize > 0) {
+                statements.put(sql, created);
+            }
+            return created;
         }
 
-        @Override
-        public Object replace(String key, Object newValue) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
+        synchronized void release(CachedStatement cached) {
+            cached.inUse = false;
+            if (statements.get(cached.sql) != cached) {
+                // evicted or prepared while the cached one was in use
+                cached.closeStatement();
+                return;
             }
-
-            Object value = null;
-            if (containsKey(key)) {
-                value = get(key);
-                put(key, newValue);
+            try {
+                cached.statement.clearParameters();
+            } catch (SQLException e) {
+                statements.remove(cached.sql);
+                cached.closeStatement();
             }
-            return value;
         }
 
-        @Override
-        public Map<String, Object> getMap() throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
+        public synchronized void setMaxSize(int maxSize) {
+            this.maxSize = maxSize;
 
-            Map<String, Object> keyValueMap = new HashMap();
-            try (PreparedStatement ps = connection.prepareStatement("SELECT sqlhelper_key,sqlhelper_value FROM " + keyValueTableName)) {
-                try (ResultSet rs = ps.executeQuery()) {
-                    while (rs.next()) {
-                        Object obj = rs.getObject(2);
-                        keyValueMap.put(rs.getString(1), obj);
-                    }
-                }
-            } catch (Throwable t) {
-                if (!isTableExists(keyValueTableName, connection)) {
-                    try (PreparedStatement ps1 = connection.prepareStatement("CREATE TABLE " + keyValueTableName + " (sqlhelper_key VARCHAR(1024),sqlhelper_value VARCHAR(1024))")) {
-                        ps1.executeUpdate();
-                    }
-                } else {
-                    throw t;
+            Iterator<CachedStatement> iterator = statements.values().iterator();
+            while (statements.size() > Math.max(maxSize, 0) && iterator.hasNext()) {
+                CachedStatement cached = iterator.next();
+                if (!cached.inUse) {
+                    cached.closeStatement();
                 }
+                iterator.remove();
             }
-            return keyValueMap;
         }
 
-        @Override
-        public void putMap(Map<String, Object> map) throws Exception {
-            if (connection == null || connection.isClosed()) {
-                throw new SQLHelperException("No operations allowed after connection closed");
-            }
+        public synchronized long getHits() {
+            return hits;
+        }
 
-            Iterator<String> keysIterator = map.keySet().iterator();
+        public synchronized long getMisses() {
+            return misses;
+        }
 
-            while (keysIterator.hasNext()) {
-                String key = keysIterator.next();
-                put(key, map.get(key));
+        public synchronized void clear() {
+            for (CachedStatement cached : statements.values()) {
+                if (!cached.inUse) {
+                    cached.closeStatement();
+                }
             }
+            statements.clear();
         }
     }
 
-    private static class ConnectionManagerImplementation implements ConnectionManager {
-
-        Connection connection;
-        String url;
-        DatabaseType databaseType;
-
-        public ConnectionManagerImplementation(Connection connection, String url, DatabaseType databaseType) {
-            this.connection = connection;
-            this.url = url;
-            this.databaseType = databaseType;
-        }
+    private static class CachedStatement implements AutoCloseable {
 
-        @Override
-        public Connection getConnection() {
-            return connection;
-        }
+        final StatementCache cache;
+        final String sql;
+        final PreparedStatement statement;
 
-        @Override
-        public String getDatabaseURL() {
-            return url;
-        }
+        // guarded by the cache
+        boolean inUse;
 
-        @Override
-        public DatabaseType getDatabaseType() {
-            return databaseType;
+        public CachedStatement(StatementCache cache, String sql, PreparedStatement statement) {
+            this.cache = cache;
+            this.sql = sql;
+            this.statement = statement;
         }
 
+        // return the statement to the cache instead of closing it
         @Override
-        public boolean isClosed() throws Exception {
-            return connection == null || connection.isClosed();
+        public void close() {
+            cache.release(this);
         }
 
-        @Override
-        public void close() throws Exception {
-            if (connection == null || !connection.isClosed()) {
-                connection.close();
+        void closeStatement() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
             }
         }
-
     }
 
     private static class SQLHelperOperationImplementation implements SQLHelperOperation {
 
-        Connection connection;
+        ConnectionManagerImplementation connectionManager;
+        SchemaCatalog schemaCatalog;
         DatabaseType databaseType;
 
-        public SQLHelperOperationImplementation(Connection connection, DatabaseType databaseType) {
-            this.connection = connection;
+        public SQLHelperOperationImplementation(ConnectionManagerImplementation connectionManager, SchemaCatalog schemaCatalog, DatabaseType databaseType) {
+            this.connectionManager = connectionManager;
+            this.schemaCatalog = schemaCatalog;
             this.databaseType = databaseType;
         }
 
@@ -2228,7 +7325,7 @@ public class SQLHelper implements AutoCloseable {
             } else if (tableName.trim().isEmpty()) {
                 throw new IllegalArgumentException("table name is empty.");
             }
-            return new SQLHelperInsertStatmentImplementation(connection, tableName);
+            return new SQLHelperInsertStatmentImplementation(connectionManager, schemaCatalog, tableName, databaseType);
         }
 
         @Override
@@ -2238,7 +7335,7 @@ public class SQLHelper implements AutoCloseable {
             } else if (tableName.trim().isEmpty()) {
                 throw new IllegalArgumentException("table name is empty.");
             }
-            return new SQLHelperUpdateStatmentImplementation(connection, tableName);
+            return new SQLHelperUpdateStatmentImplementation(connectionManager, schemaCatalog, tableName);
         }
 
         @Override
@@ -2248,7 +7345,7 @@ public class SQLHelper implements AutoCloseable {
             } else if (tableName.trim().isEmpty()) {
                 throw new IllegalArgumentException("table name is empty.");
             }
-            return new SQLHelperDeleteStatmentImplementation(connection, tableName);
+            return new SQLHelperDeleteStatmentImplementation(connectionManager, tableName);
         }
 
         @Override
@@ -2258,7 +7355,17 @@ public class SQLHelper implements AutoCloseable {
             } else if (tableName.trim().isEmpty()) {
                 throw new IllegalArgumentException("table name is empty.");
             }
-            return new SQLHelperSelectStatmentImplementation(connection, tableName, databaseType);
+            return new SQLHelperSelectStatmentImplementation(connectionManager, tableName, databaseType);
+        }
+
+        @Override
+        public SQLHelperUpsertStatment upsertInto(String tableName) throws Exception {
+            if (tableName == null) {
+                throw new NullPointerException("table name is null.");
+            } else if (tableName.trim().isEmpty()) {
+                throw new IllegalArgumentException("table name is empty.");
+            }
+            return new SQLHelperUpsertStatmentImplementation(connectionManager, schemaCatalog, tableName, databaseType);
         }
 
     }
@@ -0,0 +1,35 @@
+package com.nsma;
+
+/**
+ * the values of {@link SQLHelperAggregateStatment#execute()}, aggregates are
+ * numbered in the order they were added starting from 0.
+ *
+ * @author Saleh Haddawi
+ */
+public interface SQLHelperAggregateResult {
+
+    /**
+     * @return number of groups.
+     */
+    public int size();
+
+    /**
+     * @return the GROUP BY values of the group, empty if there is no GROUP BY.
+     */
+    public Object[] getGroup(int row);
+
+    /**
+     * @return the aggregate value, NaN if it is NULL.
+     */
+    public double get(int row, int aggregate);
+
+    /**
+     * same as {@link #get(int, int)} but exact for COUNT and whole numbers.
+     */
+    public long getLong(int row, int aggregate);
+
+    /**
+     * same as <code>get(0, aggregate)</code>, for aggregates without GROUP BY.
+     */
+    public double get(int aggregate);
+}
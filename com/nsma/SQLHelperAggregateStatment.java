@@ -0,0 +1,31 @@
+package com.nsma;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * many aggregates over the same rows in one statement, returned by
+ * {@link SQLHelperSelectStatment#aggregate()}. the WHERE, GROUP BY, HAVING,
+ * ORDER BY, DISTINCT and limit of the select statement are used, the select
+ * statement is reset after execution.
+ *
+ * @author Saleh Haddawi
+ */
+public interface SQLHelperAggregateStatment {
+
+    public SQLHelperAggregateStatment max(String column);
+
+    public SQLHelperAggregateStatment min(String column);
+
+    public SQLHelperAggregateStatment sum(String column);
+
+    public SQLHelperAggregateStatment avg(String column);
+
+    public SQLHelperAggregateStatment count(String column);
+
+    /**
+     * @return one row for each group, or one row if there is no GROUP BY.
+     */
+    public SQLHelperAggregateResult execute() throws Exception;
+
+    public CompletableFuture<SQLHelperAggregateResult> executeAsync();
+}
@@ -0,0 +1,20 @@
+package com.nsma;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * binds values of one type to a <code>PreparedStatement</code> parameter,
+ * registered with {@link SQLHelper#registerBinder(Class, SQLHelperBinder)}.
+ *
+ * @author Saleh Haddawi
+ */
+public interface SQLHelperBinder<T> {
+
+    /**
+     * @param ps the statement.
+     * @param index the parameter index, the first is 1.
+     * @param value the value, never null.
+     */
+    public void bind(PreparedStatement ps, int index, T value) throws SQLException;
+}
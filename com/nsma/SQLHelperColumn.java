@@ -0,0 +1,22 @@
+package com.nsma;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * marks a field of a {@link SQLHelperEntity} class as a table column, the
+ * field can't be private.
+ *
+ * @author Saleh Haddawi
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface SQLHelperColumn {
+
+    /**
+     * @return column name, the field name is used when empty.
+     */
+    String value() default "";
+}
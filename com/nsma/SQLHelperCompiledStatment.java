@@ -0,0 +1,41 @@
+package com.nsma;
+
+import java.util.List;
+
+/**
+ * a statement returned by <code>compile()</code>, the SQL is built once and
+ * only the values are given on each call. it never changes so it can be kept
+ * and used by many threads at the same time.
+ *
+ * @author Saleh Haddawi
+ */
+public interface SQLHelperCompiledStatment {
+
+    public String getSQLString();
+
+    /**
+     * @return the columns in the order their values are given, for INSERT and
+     * UPDATE, otherwise null.
+     */
+    public String getColumns();
+
+    public int getRequiredValuesCount();
+
+    /**
+     * execute INSERT, UPDATE or DELETE statement.
+     *
+     * @param values all the values of the statement in order, for UPDATE the
+     * columns values followed by the WHERE values.
+     * @return number of affected rows.
+     */
+    public int execute(Object... values) throws Exception;
+
+    public long executeLarge(Object... values) throws Exception;
+
+    /**
+     * execute SELECT statement.
+     *
+     * @param values the WHERE values followed by the HAVING values.
+     */
+    public <T extends SQLHelperValue> List<T> query(Class<T> returnListType, Object... values) throws Exception;
+}
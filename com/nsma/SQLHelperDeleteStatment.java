@@ -1,5 +1,7 @@
 package com.nsma;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  *
  * @author Saleh Haddawi
@@ -15,4 +17,20 @@ public interface SQLHelperDeleteStatment {
     public int execute() throws Exception;
 
     public long executeLarge() throws Exception;
+
+    /**
+     * build the statement once for the current WHERE condition, the values
+     * are given on each call of
+     * {@link SQLHelperCompiledStatment#execute(Object...)}.
+     */
+    public SQLHelperCompiledStatment compile() throws Exception;
+
+    /**
+     * same as {@link #execute()} but runs on another thread, the statement is
+     * copied and reset so it can be used again right away.
+     * <br> it doesn't run inside the transaction of the calling thread.
+     */
+    public CompletableFuture<Integer> executeAsync();
+
+    public CompletableFuture<Long> executeLargeAsync();
 }
@@ -0,0 +1,25 @@
+package com.nsma;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * marks a class whose {@link SQLHelperColumn} fields are mapped by a
+ * generated class.
+ * <br> the SQLHelper annotation processor generates
+ * <code>SQLHelper_ClassName</code> in the same package, it extends the
+ * annotated class and implements {@link SQLHelperIndexedValue} using typed
+ * JDBC getters and setters, so it can be used directly in
+ * <code>execute(SQLHelper_ClassName.class)</code> and
+ * <code>setValues(SQLHelperValue)</code>.
+ * <br> the annotated class needs a constructor without parameters that is
+ * not private.
+ *
+ * @author Saleh Haddawi
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface SQLHelperEntity {
+}
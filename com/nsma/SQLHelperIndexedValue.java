@@ -0,0 +1,48 @@
+package com.nsma;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+
+/**
+ * a {@link SQLHelperValue} that reads and binds its values by a column id
+ * instead of the column name.
+ * <br> SQLHelper calls {@link #getColumnId(String)} once for each column of
+ * a statement and then uses the returned ids for every row, so no string
+ * comparison is done per row.
+ *
+ * @author Saleh Haddawi
+ */
+public interface SQLHelperIndexedValue extends SQLHelperValue {
+
+    /**
+     * @param colName lower case column name.
+     * @return an id chosen by the class for this column, passed back to
+     * {@link #setSQLHelperValue(int, int, ResultSet)} and
+     * {@link #getSQLHelperValue(int, int, PreparedStatement)}.
+     */
+    public int getColumnId(String colName);
+
+    /**
+     * @param columnId id returned by {@link #getColumnId(String)}.
+     * @param index index of the column in the result set, starting from 1.
+     * @param rs result set positioned on the row to read.
+     */
+    public void setSQLHelperValue(int columnId, int index, ResultSet rs) throws Exception;
+
+    /**
+     * @param columnId id returned by {@link #getColumnId(String)}.
+     * @param index index of the parameter in the statement, starting from 1.
+     * @param ps statement to bind the value to.
+     */
+    public void getSQLHelperValue(int columnId, int index, PreparedStatement ps) throws Exception;
+
+    @Override
+    public default void setSQLHelperValue(String colName, ResultSet rs) throws Exception {
+        setSQLHelperValue(getColumnId(colName.toLowerCase()), rs.findColumn(colName), rs);
+    }
+
+    @Override
+    public default void getSQLHelperValue(String colName, int index, PreparedStatement ps) throws Exception {
+        getSQLHelperValue(getColumnId(colName.toLowerCase()), index, ps);
+    }
+}
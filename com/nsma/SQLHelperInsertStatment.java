@@ -1,5 +1,7 @@
 package com.nsma;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  *
  * @author Saleh Haddawi
@@ -16,7 +18,56 @@ public interface SQLHelperInsertStatment {
     
     public SQLHelperInsertStatment reset();
     
-    public SQLHelperStatmentMetaData getMetaData();
+    public SQLHelperStatmentMetaData getMetaData() throws Exception;
     
     public int execute() throws Exception;
+
+    /**
+     * set how many rows {@link #addBatch()} collects before sending them to
+     * the database, 0 or less means rows are sent only by
+     * {@link #executeBatch()}.
+     */
+    public SQLHelperInsertStatment setBatchSize(int rows);
+
+    /**
+     * when enabled, {@link #addBatch()} collects the rows and sends them as
+     * multi-row <code>INSERT INTO table(cols) VALUES (?,?),(?,?)...</code>
+     * statements (<code>INSERT ALL</code> for Oracle), each statement holds as
+     * many rows as the database bind parameters limit allows.
+     * <br> {@link SQLHelperValue} rows are read only when the batch is sent, so
+     * a new object must be used for each row.
+     */
+    public SQLHelperInsertStatment setMultiRowValues(boolean multiRowValues) throws Exception;
+
+    /**
+     * add the current row to the batch and clear its values, the columns are
+     * kept so the next row can be set directly. All rows in a batch must have
+     * the same columns. If it throws, the rows not sent yet are dropped and
+     * the batch connection is given back.
+     */
+    public SQLHelperInsertStatment addBatch() throws Exception;
+
+    /**
+     * send the remaining rows in the batch to the database and close it.
+     *
+     * @return update count for each row added since the last call, in
+     * multi-row mode a row count is {@link java.sql.Statement#SUCCESS_NO_INFO}
+     * when the database didn't insert all rows of its statement.
+     */
+    public int[] executeBatch() throws Exception;
+
+    /**
+     * build the statement once for the current columns, the values are given
+     * on each call of {@link SQLHelperCompiledStatment#execute(Object...)}.
+     */
+    public SQLHelperCompiledStatment compile() throws Exception;
+
+    /**
+     * same as {@link #execute()} but runs on another thread, the statement is
+     * copied and reset so it can be used again right away. the values are not
+     * copied, a <code>SQLHelperValue</code> must not be changed until the
+     * future completes.
+     * <br> it doesn't run inside the transaction of the calling thread.
+     */
+    public CompletableFuture<Integer> executeAsync();
 }
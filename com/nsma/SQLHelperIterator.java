@@ -0,0 +1,13 @@
+package com.nsma;
+
+import java.util.Iterator;
+
+/**
+ *
+ * @author Saleh Haddawi
+ */
+public interface SQLHelperIterator<T> extends Iterator<T>, AutoCloseable {
+
+    @Override
+    public void close();
+}
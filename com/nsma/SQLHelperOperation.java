@@ -1,6 +1,8 @@
 package com.nsma;
 
 /**
+ * thread safe, every method returns a new statement which is not thread safe
+ * and must be used by one thread only.
  *
  * @author Saleh Haddawi
  */
@@ -14,4 +16,6 @@ public interface SQLHelperOperation {
 
     public SQLHelperSelectStatment selectFrom(String tableName) throws Exception;
 
+    public SQLHelperUpsertStatment upsertInto(String tableName) throws Exception;
+
 }
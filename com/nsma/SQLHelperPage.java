@@ -0,0 +1,23 @@
+package com.nsma;
+
+import java.util.List;
+
+/**
+ * one page of rows returned by
+ * {@link SQLHelperSelectStatment#pageAfter(String, Object[], int, Class)}.
+ *
+ * @author Saleh Haddawi
+ */
+public interface SQLHelperPage<T> {
+
+    public List<T> getRows();
+
+    public boolean hasNextPage();
+
+    /**
+     * @return the key values of the last row of this page, give them to
+     * <code>pageAfter()</code> to get the next page, null if this is the last
+     * page.
+     */
+    public Object[] getNextKeyValues();
+}
@@ -2,6 +2,9 @@ package com.nsma;
 
 import java.sql.ResultSet;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.stream.Stream;
 
 /**
  *
@@ -18,6 +21,19 @@ public interface SQLHelperSelectStatment {
     public SQLHelperSelectStatment distinct(boolean selectDistinct);
     
     public SQLHelperSelectStatment limit(int rows);
+
+    /**
+     * split {@link #execute(Class)}, {@link #executeAsync(Class)} and
+     * {@link #stream(Class)} into
+     * <code>partitions</code> selects over equal ranges of a numeric or date
+     * column between its MIN and MAX, each range runs at the same time on its
+     * own connection of the connection pool. <code>execute(Class)</code>
+     * returns the rows range by range in the column order,
+     * <code>stream(Class)</code> gives each range as soon as it is read,
+     * closing the stream cancels the ranges that haven't started.
+     * <br> ORDER BY and LIMIT apply to each range, not to all the rows.
+     */
+    public SQLHelperSelectStatment parallel(String column, int partitions);
     
     public double max(String column) throws Exception;
     
@@ -28,6 +44,12 @@ public interface SQLHelperSelectStatment {
     public double avg(String column) throws Exception;
     
     public long count(String column) throws Exception;
+
+    /**
+     * compute many aggregates in one statement instead of calling
+     * {@link #max(String)}, {@link #min(String)} .. for each of them.
+     */
+    public SQLHelperAggregateStatment aggregate();
     
     public SQLHelperSelectStatment orderBy(String column);
     
@@ -38,4 +60,80 @@ public interface SQLHelperSelectStatment {
     public ResultSet execute() throws Exception;
         
     public <T extends SQLHelperValue> List<T> execute(Class<T> returnListType) throws Exception;
+
+    /**
+     * hint for how many rows the driver fetches from the database at a time
+     * for {@link #iterator(Class)} and {@link #stream(Class)}.
+     * <br> on MySQL it is used only with <code>useCursorFetch=true</code>,
+     * otherwise the rows are streamed one by one.
+     */
+    public SQLHelperSelectStatment fetchSize(int rows);
+
+    /**
+     * execute the select and map each row only when it is read, the result
+     * set and the statement are closed when the last row is read or when the
+     * iterator is closed.
+     * <br> on MySQL the rows are streamed from the server, no other statement
+     * can run on the connection until the iterator is closed.
+     */
+    public <T extends SQLHelperValue> SQLHelperIterator<T> iterator(Class<T> returnType) throws Exception;
+
+    /**
+     * same as {@link #iterator(Class)} but as a {@link Stream}, the stream must
+     * be closed (try-with-resources) if not all rows are read.
+     */
+    public <T extends SQLHelperValue> Stream<T> stream(Class<T> returnType) throws Exception;
+
+    /**
+     * read one page of rows ordered by <code>keyColumns</code>, the page
+     * starts right after the row with <code>lastKeyValues</code> so it costs
+     * the same for any page, unlike OFFSET. the key columns must be selected,
+     * not null and unique together (end with the primary key), a column can
+     * be followed by DESC.
+     * <br> the current WHERE condition is kept and the ORDER BY and limit are
+     * replaced, the statement is reset after the page is read.
+     *
+     * @param keyColumns example: <code>"created DESC, id DESC"</code>.
+     * @param lastKeyValues {@link SQLHelperPage#getNextKeyValues()} of the
+     * previous page, null for the first page.
+     */
+    public <T extends SQLHelperValue> SQLHelperPage<T> pageAfter(String keyColumns, Object[] lastKeyValues, int pageSize, Class<T> returnType) throws Exception;
+
+    /**
+     * the rows as a {@link Flow.Publisher}, a row is read and mapped only
+     * after the subscriber requests it. the select runs on the first request
+     * of each subscriber and reads the rows in chunks of
+     * {@link #fetchSize(int)} (256 if not set) on another thread, the
+     * connection is given back after the last row, on an error or when the
+     * subscription is cancelled. without a pool the rows are read on the
+     * second connection used by the async operations, so they wait for the
+     * subscription to end. the statement is copied and reset.
+     */
+    public <T extends SQLHelperValue> Flow.Publisher<T> publisher(Class<T> returnType);
+
+    /**
+     * build the statement once for the current clauses, the values are given
+     * on each call of
+     * {@link SQLHelperCompiledStatment#query(Class, Object...)}.
+     */
+    public SQLHelperCompiledStatment compile() throws Exception;
+
+    /**
+     * same as {@link #execute(Class)} but runs on another thread, the
+     * statement is copied and reset so it can be used again right away.
+     * independent selects started this way run at the same time, each on its
+     * own connection when SQLHelper is opened with a connection pool.
+     * <br> it doesn't run inside the transaction of the calling thread.
+     */
+    public <T extends SQLHelperValue> CompletableFuture<List<T>> executeAsync(Class<T> returnListType);
+
+    public CompletableFuture<Double> maxAsync(String column);
+
+    public CompletableFuture<Double> minAsync(String column);
+
+    public CompletableFuture<Double> sumAsync(String column);
+
+    public CompletableFuture<Double> avgAsync(String column);
+
+    public CompletableFuture<Long> countAsync(String column);
 }
@@ -1,5 +1,7 @@
 package com.nsma;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  *
  * @author Saleh Haddawi
@@ -23,4 +25,22 @@ public interface SQLHelperUpdateStatment {
     public int execute() throws Exception;
 
     public long executeLarge() throws Exception;
+
+    /**
+     * build the statement once for the current columns and WHERE condition,
+     * the values are given on each call of
+     * {@link SQLHelperCompiledStatment#execute(Object...)}.
+     */
+    public SQLHelperCompiledStatment compile() throws Exception;
+
+    /**
+     * same as {@link #execute()} but runs on another thread, the statement is
+     * copied and reset so it can be used again right away. the values are not
+     * copied, a <code>SQLHelperValue</code> must not be changed until the
+     * future completes.
+     * <br> it doesn't run inside the transaction of the calling thread.
+     */
+    public CompletableFuture<Integer> executeAsync();
+
+    public CompletableFuture<Long> executeLargeAsync();
 }
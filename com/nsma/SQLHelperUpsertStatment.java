@@ -0,0 +1,55 @@
+package com.nsma;
+
+/**
+ * insert a row or update it if a row with the same key exists, in one
+ * statement where the database has one (SQLite ON CONFLICT, MySQL ON
+ * DUPLICATE KEY UPDATE, Oracle MERGE). the key columns must be the primary
+ * key or have a unique index, otherwise or on other databases an UPDATE
+ * followed by an INSERT when no row was updated is used.
+ *
+ * @author Saleh Haddawi
+ */
+public interface SQLHelperUpsertStatment {
+
+    public SQLHelperUpsertStatment setCols(String columns);
+
+    public SQLHelperUpsertStatment setValues(Object... values);
+
+    public SQLHelperUpsertStatment setValues(SQLHelperValue valueObject);
+
+    public SQLHelperUpsertStatment setCol(String col, Object value) throws Exception;
+
+    /**
+     * the columns that identify the row, by default the primary key of the
+     * table. they must be in the inserted columns.
+     */
+    public SQLHelperUpsertStatment keys(String keyColumns);
+
+    public SQLHelperUpsertStatment reset();
+
+    /**
+     * @return number of affected rows as reported by the driver, MySQL
+     * reports 2 for an updated row.
+     */
+    public int execute() throws Exception;
+
+    /**
+     * send the batch automatically every <code>rows</code> rows, by default
+     * the batch is sent only by {@link #executeBatch()}.
+     */
+    public SQLHelperUpsertStatment setBatchSize(int rows);
+
+    /**
+     * add the current row to the batch, all rows of the batch must have the
+     * same columns and keys. If it throws, the rows not sent yet are dropped
+     * and the batch connection is given back.
+     */
+    public SQLHelperUpsertStatment addBatch() throws Exception;
+
+    /**
+     * on Oracle a batch can fail with ORA-00001 when another session inserts
+     * one of its keys at the same time, unlike {@link #execute()} it is not
+     * tried again.
+     */
+    public int[] executeBatch() throws Exception;
+}
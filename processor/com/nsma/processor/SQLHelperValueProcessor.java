@@ -0,0 +1,269 @@
+package com.nsma.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+
+/**
+ * generates <code>SQLHelper_ClassName</code> for every class annotated with
+ * <code>@SQLHelperEntity</code>, the generated class extends the annotated
+ * class and implements <code>SQLHelperIndexedValue</code> by reading and
+ * binding each <code>@SQLHelperColumn</code> field with its typed JDBC
+ * method.
+ * <br> this processor is a separate module, it is only needed on the
+ * compiler processor path, not at runtime.
+ *
+ * @author Saleh Haddawi
+ */
+@SupportedAnnotationTypes({"com.nsma.SQLHelperEntity", "com.nsma.SQLHelperColumn"})
+public class SQLHelperValueProcessor extends AbstractProcessor {
+
+    private static final String ENTITY = "com.nsma.SQLHelperEntity";
+
+    private static final String COLUMN = "com.nsma.SQLHelperColumn";
+
+    // field type -> {JDBC getter/setter suffix, java.sql.Types constant for null}
+    private static final Map<String, String[]> JDBC_TYPES = new HashMap<>();
+
+    static {
+        JDBC_TYPES.put("int", new String[]{"Int", null});
+        JDBC_TYPES.put("long", new String[]{"Long", null});
+        JDBC_TYPES.put("double", new String[]{"Double", null});
+        JDBC_TYPES.put("float", new String[]{"Float", null});
+        JDBC_TYPES.put("short", new String[]{"Short", null});
+        JDBC_TYPES.put("byte", new String[]{"Byte", null});
+        JDBC_TYPES.put("boolean", new String[]{"Boolean", null});
+        JDBC_TYPES.put("java.lang.Integer", new String[]{"Int", "INTEGER"});
+        JDBC_TYPES.put("java.lang.Long", new String[]{"Long", "BIGINT"});
+        JDBC_TYPES.put("java.lang.Double", new String[]{"Double", "DOUBLE"});
+        JDBC_TYPES.put("java.lang.Float", new String[]{"Float", "REAL"});
+        JDBC_TYPES.put("java.lang.Short", new String[]{"Short", "SMALLINT"});
+        JDBC_TYPES.put("java.lang.Byte", new String[]{"Byte", "TINYINT"});
+        JDBC_TYPES.put("java.lang.Boolean", new String[]{"Boolean", "BOOLEAN"});
+        JDBC_TYPES.put("java.lang.String", new String[]{"String", null});
+        JDBC_TYPES.put("byte[]", new String[]{"Bytes", null});
+        JDBC_TYPES.put("java.math.BigDecimal", new String[]{"BigDecimal", null});
+        JDBC_TYPES.put("java.sql.Date", new String[]{"Date", null});
+        JDBC_TYPES.put("java.sql.Time", new String[]{"Time", null});
+        JDBC_TYPES.put("java.sql.Timestamp", new String[]{"Timestamp", null});
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            if (!annotation.getQualifiedName().contentEquals(ENTITY)) {
+                continue;
+            }
+            for (Element element : roundEnv.getElementsAnnotatedWith(annotation)) {
+                if (element.getKind() != ElementKind.CLASS) {
+                    error(element, "@SQLHelperEntity can only be used on classes.");
+                    continue;
+                }
+                try {
+                    generate((TypeElement) element);
+                } catch (IOException e) {
+                    error(element, "Can't generate SQLHelper class: " + e);
+                }
+            }
+        }
+        return true;
+    }
+
+    private void generate(TypeElement type) throws IOException {
+        if (type.getModifiers().contains(Modifier.FINAL) || type.getModifiers().contains(Modifier.PRIVATE)) {
+            error(type, "@SQLHelperEntity class can't be final or private.");
+            return;
+        }
+        if (type.getNestingKind().isNested() && !type.getModifiers().contains(Modifier.STATIC)) {
+            error(type, "@SQLHelperEntity nested class must be static.");
+            return;
+        }
+        if (!hasNoArgsConstructor(type)) {
+            error(type, "@SQLHelperEntity class needs a constructor without parameters that is not private.");
+            return;
+        }
+
+        List<VariableElement> fields = new ArrayList<>();
+        List<String> columns = new ArrayList<>();
+
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() != ElementKind.FIELD || !hasAnnotation(member, COLUMN)) {
+                continue;
+            }
+            if (member.getModifiers().contains(Modifier.PRIVATE) || member.getModifiers().contains(Modifier.FINAL) || member.getModifiers().contains(Modifier.STATIC)) {
+                error(member, "@SQLHelperColumn field can't be private, final or static.");
+                return;
+            }
+            String column = columnName(member);
+            column = (column.isEmpty() ? member.getSimpleName().toString() : column).toLowerCase();
+
+            int mapped = columns.indexOf(column);
+            if (mapped >= 0) {
+                error(member, "@SQLHelperColumn column (" + column + ") is already mapped to field (" + fields.get(mapped).getSimpleName() + ").");
+                return;
+            }
+            fields.add((VariableElement) member);
+            columns.add(column);
+        }
+
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(type);
+        String packageName = packageElement.isUnnamed() ? "" : packageElement.getQualifiedName().toString();
+        String superName = type.getQualifiedName().toString();
+        String relativeName = packageName.isEmpty() ? superName : superName.substring(packageName.length() + 1);
+        String className = "SQLHelper_" + relativeName.replace('.', '_');
+
+        StringBuilder src = new StringBuilder(1024 + fields.size() * 256);
+
+        if (!packageName.isEmpty()) {
+            src.append("package ").append(packageName).append(";\n\n");
+        }
+
+        src.append("/**\n * generated by SQLHelperValueProcessor from {@link ").append(superName).append("}, don't edit.\n */\n");
+        src.append("public class ").append(className).append(" extends ").append(superName).append(" implements com.nsma.SQLHelperIndexedValue {\n\n");
+
+        src.append("    public ").append(className).append("() {\n    }\n\n");
+
+        // column ids are the field positions
+        src.append("    @Override\n    public int getColumnId(String colName) {\n        switch (colName) {\n");
+        for (int i = 0; i < fields.size(); i++) {
+            src.append("            case \"").append(columns.get(i)).append("\":\n                return ").append(i).append(";\n");
+        }
+        src.append("            default:\n                return -1;\n        }\n    }\n\n");
+
+        src.append("    @Override\n    public void setSQLHelperValue(int columnId, int index, java.sql.ResultSet rs) throws Exception {\n        switch (columnId) {\n");
+        for (int i = 0; i < fields.size(); i++) {
+            src.append("            case ").append(i).append(":\n");
+            appendRead(src, fields.get(i));
+            src.append("                break;\n");
+        }
+        src.append("            default:\n                break;\n        }\n    }\n\n");
+
+        src.append("    @Override\n    public void getSQLHelperValue(int columnId, int index, java.sql.PreparedStatement ps) throws Exception {\n        switch (columnId) {\n");
+        for (int i = 0; i < fields.size(); i++) {
+            src.append("            case ").append(i).append(":\n");
+            appendWrite(src, fields.get(i));
+            src.append("                break;\n");
+        }
+        src.append("            default:\n                throw new java.sql.SQLException(\"UNKNOWN column for parameter (\" + index + \") in ").append(className).append("\");\n        }\n    }\n}\n");
+
+        String qualifiedName = packageName.isEmpty() ? className : packageName + "." + className;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter()) {
+            writer.write(src.toString());
+        }
+    }
+
+    private void appendRead(StringBuilder src, VariableElement field) {
+        String name = "this." + field.getSimpleName();
+        TypeMirror type = field.asType();
+        String[] jdbc = JDBC_TYPES.get(type.toString());
+
+        if (jdbc == null) {
+            String erasure = processingEnv.getTypeUtils().erasure(type).toString();
+            if (type.getKind() != TypeKind.TYPEVAR && !erasure.equals(type.toString())) {
+                // a class literal can't have type arguments, the driver returns the erased type
+                src.append("                {\n");
+                src.append("                    @SuppressWarnings(\"unchecked\")\n");
+                src.append("                    ").append(type).append(" value = (").append(type).append(") rs.getObject(index, ").append(erasure).append(".class);\n");
+                src.append("                    ").append(name).append(" = value;\n");
+                src.append("                }\n");
+            } else {
+                src.append("                ").append(name).append(" = rs.getObject(index, ").append(erasure).append(".class);\n");
+            }
+        } else if (jdbc[1] != null) {
+            // boxed field, read the primitive and check for NULL
+            src.append("                {\n");
+            src.append("                    ").append(primitiveOf(jdbc[0])).append(" value = rs.get").append(jdbc[0]).append("(index);\n");
+            src.append("                    ").append(name).append(" = rs.wasNull() ? null : value;\n");
+            src.append("                }\n");
+        } else {
+            src.append("                ").append(name).append(" = rs.get").append(jdbc[0]).append("(index);\n");
+        }
+    }
+
+    private void appendWrite(StringBuilder src, VariableElement field) {
+        String name = "this." + field.getSimpleName();
+        String[] jdbc = JDBC_TYPES.get(field.asType().toString());
+
+        if (jdbc == null) {
+            src.append("                ps.setObject(index, ").append(name).append(");\n");
+        } else if (jdbc[1] != null) {
+            src.append("                if (").append(name).append(" == null) {\n");
+            src.append("                    ps.setNull(index, java.sql.Types.").append(jdbc[1]).append(");\n");
+            src.append("                } else {\n");
+            src.append("                    ps.set").append(jdbc[0]).append("(index, ").append(name).append(");\n");
+            src.append("                }\n");
+        } else {
+            src.append("                ps.set").append(jdbc[0]).append("(index, ").append(name).append(");\n");
+        }
+    }
+
+    private static String primitiveOf(String jdbcName) {
+        return jdbcName.equals("Int") ? "int" : jdbcName.toLowerCase();
+    }
+
+    private static boolean hasNoArgsConstructor(TypeElement type) {
+        boolean hasConstructor = false;
+        for (Element member : type.getEnclosedElements()) {
+            if (member.getKind() == ElementKind.CONSTRUCTOR) {
+                hasConstructor = true;
+                if (((ExecutableElement) member).getParameters().isEmpty() && !member.getModifiers().contains(Modifier.PRIVATE)) {
+                    return true;
+                }
+            }
+        }
+        // the default constructor
+        return !hasConstructor;
+    }
+
+    private static boolean hasAnnotation(Element element, String annotation) {
+        return columnAnnotation(element, annotation) != null;
+    }
+
+    private static AnnotationMirror columnAnnotation(Element element, String annotation) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private static String columnName(Element field) {
+        AnnotationMirror mirror = columnAnnotation(field, COLUMN);
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : mirror.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals("value")) {
+                return String.valueOf(entry.getValue().getValue()).trim();
+            }
+        }
+        return "";
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}